@@ -0,0 +1,114 @@
+package androidgraph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling the resource ID tables of AppInfo and looking resource IDs and names up, with IDs laid out like in an aapt
+ * resource table, and looking function signatures up in classes of a few dozen methods
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppInfoBenchmark {
+    private static final int LOOKUP_COUNT = 1024;
+    private static final int METHODS_PER_CLASS = 40;
+
+    @Param({"1000", "10000", "50000"})
+    public int resourceCount;
+
+    private int[] ids;
+    private String[] names;
+    private AppInfo filledAppInfo;
+    private int[] lookupIds;
+    private String[] lookupNames;
+    private String[] lookupClasses;
+    private String[] lookupFunctions;
+    private int lookup;
+
+    @Setup
+    public void setUp() {
+        ids = new int[resourceCount];
+        names = new String[resourceCount];
+        String[] types = {"id", "layout", "string", "drawable"};
+        for (int i = 0; i < resourceCount; i++) {
+            int type = i % types.length;
+            // 0xPPTTEEEE: package, type and entry index
+            ids[i] = 0x7f000000 | ((type + 1) << 16) | (i / types.length);
+            names[i] = "com.example:" + types[type] + "/resource" + i;
+        }
+        filledAppInfo = new AppInfo("Example", "com.example");
+        for (int i = 0; i < resourceCount; i++) {
+            filledAppInfo.addResourceID(ids[i], names[i]);
+        }
+        Random random = new Random(3);
+        lookupIds = new int[LOOKUP_COUNT];
+        lookupNames = new String[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            int resource = random.nextInt(resourceCount);
+            lookupIds[i] = ids[resource];
+            lookupNames[i] = new String(names[resource]);
+        }
+        // One function per resource, so that the function table grows with the resource count
+        for (int i = 0; i < resourceCount; i++) {
+            filledAppInfo.addFunction(className(i), functionSignature(i));
+        }
+        lookupClasses = new String[LOOKUP_COUNT];
+        lookupFunctions = new String[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            int function = random.nextInt(resourceCount);
+            lookupClasses[i] = className(function);
+            lookupFunctions[i] = functionSignature(function);
+        }
+    }
+
+    private static String className(int function) {
+        return "com.example.Class" + function / METHODS_PER_CLASS;
+    }
+
+    private static String functionSignature(int function) {
+        return "<" + className(function) + ": void method" + function + "(android.view.View)>";
+    }
+
+    @Benchmark
+    public AppInfo populate() {
+        AppInfo appInfo = new AppInfo("Example", "com.example");
+        for (int i = 0; i < resourceCount; i++) {
+            appInfo.addResourceID(ids[i], names[i]);
+        }
+        return appInfo;
+    }
+
+    @Benchmark
+    public String lookup() {
+        lookup = (lookup + 1) % LOOKUP_COUNT;
+        return filledAppInfo.getResourceIDStr(lookupIds[lookup]);
+    }
+
+    @Benchmark
+    public int reverseLookup() {
+        lookup = (lookup + 1) % LOOKUP_COUNT;
+        return filledAppInfo.getResourceIDInt(lookupNames[lookup]);
+    }
+
+    @Benchmark
+    public boolean containsFunction() {
+        lookup = (lookup + 1) % LOOKUP_COUNT;
+        return filledAppInfo.containsFunction(lookupClasses[lookup], lookupFunctions[lookup]);
+    }
+}
@@ -0,0 +1,56 @@
+package androidgraph;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks and writes the JMH results as JSON, so runs before and after a change can be compared.
+ * <p>
+ * Usage: BenchmarkMain [--result FILE] [--include REGEX] [call graph recording ...]
+ * <p>
+ * The edge scan benchmark runs once per recording, e.g. the recordings of the dataset APKs written by
+ * {@code BatchAnalysis ... --record}, and is skipped when no recording is given.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        String resultFile = "benchmark-results.json";
+        String include = null;
+        List<String> recordings = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--result":
+                    resultFile = args[++i];
+                    break;
+                case "--include":
+                    include = args[++i];
+                    break;
+                default:
+                    recordings.add(args[i]);
+                    break;
+            }
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile);
+        if (include != null) {
+            options.include(include);
+        } else {
+            for (Class<?> benchmark: List.of(QueryBenchmark.class, AppInfoBenchmark.class, NodeBenchmark.class, EdgeScanBenchmark.class)) {
+                options.include(benchmark.getSimpleName());
+            }
+        }
+        if (recordings.isEmpty()) {
+            options.exclude(EdgeScanBenchmark.class.getSimpleName());
+        } else {
+            options.param("recordingFile", recordings.toArray(new String[0]));
+        }
+        new Runner(options.build()).run();
+    }
+}
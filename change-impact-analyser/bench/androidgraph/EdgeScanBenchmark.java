@@ -0,0 +1,170 @@
+package androidgraph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import soot.ArrayType;
+import soot.BooleanType;
+import soot.ByteType;
+import soot.CharType;
+import soot.DoubleType;
+import soot.FloatType;
+import soot.IntType;
+import soot.Kind;
+import soot.LongType;
+import soot.RefType;
+import soot.Scene;
+import soot.ShortType;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Type;
+import soot.Value;
+import soot.VoidType;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The edge scan phase of APKAnalyser.processApk, replayed from a call graph recorded with
+ * APKAnalyser.setCallGraphRecordFile: registering the method signatures, scanning the edges and merging them into a
+ * compacted graph. Every constant resource id of the recording resolves to a resource, as in a real analysis.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EdgeScanBenchmark {
+    @Param({""})
+    public String recordingFile;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private final Map<String, SootClass> classes = new HashMap<>();
+    private final Map<String, SootMethod> methods = new HashMap<>();
+    private final List<Edge> edges = new ArrayList<>();
+    private AppInfo appInfo;
+    private int methodNumber;
+
+    @Setup
+    public void setUp() throws IOException {
+        appInfo = new AppInfo("Replay", "replay");
+        SootClass invokedClass = new SootClass("replay.Invoked");
+        for (String line: Files.readAllLines(Paths.get(recordingFile), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", -1);
+            SootMethod caller = getMethod(fields[0]);
+            SootMethod callee = getMethod(fields[1]);
+            Stmt srcStmt = null;
+            if (!fields[2].isEmpty()) {
+                List<Value> args = new ArrayList<>();
+                if (!fields[3].isEmpty()) {
+                    args.add(toValue(fields[3]));
+                }
+                List<Type> parameterTypes = Collections.nCopies(args.size(), IntType.v());
+                SootMethodRef methodRef = Scene.v().makeMethodRef(invokedClass, fields[2], parameterTypes, VoidType.v(), true);
+                srcStmt = Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(methodRef, args));
+            }
+            edges.add(new Edge(caller, srcStmt, callee, Kind.STATIC));
+        }
+    }
+
+    private Value toValue(String arg) {
+        try {
+            int resourceID = Integer.parseInt(arg);
+            if (appInfo.getResourceIDStr(resourceID) == null) {
+                appInfo.addResourceID(resourceID, "replay:id/" + resourceID);
+            }
+            return IntConstant.v(resourceID);
+        } catch (NumberFormatException e) {
+            // A local or another non constant argument, only its name is used by the scan
+            return Jimple.v().newLocal(arg, IntType.v());
+        }
+    }
+
+    /**
+     * @param signature Soot signature, e.g. {@code <com.example.Main: void onClick(android.view.View)>}
+     * @return a numbered method with this signature, created on the first call
+     */
+    private SootMethod getMethod(String signature) {
+        SootMethod method = methods.get(signature);
+        if (method != null) {
+            return method;
+        }
+        int colon = signature.indexOf(':');
+        int space = signature.indexOf(' ', colon + 2);
+        int open = signature.indexOf('(', space);
+        int close = signature.lastIndexOf(')');
+        String className = signature.substring(1, colon);
+        Type returnType = toType(signature.substring(colon + 2, space));
+        String name = signature.substring(space + 1, open);
+        List<Type> parameterTypes = new ArrayList<>();
+        if (close > open + 1) {
+            for (String parameterType: signature.substring(open + 1, close).split(",")) {
+                parameterTypes.add(toType(parameterType));
+            }
+        }
+        SootClass sootClass = classes.computeIfAbsent(className, SootClass::new);
+        method = new SootMethod(name, parameterTypes, returnType);
+        sootClass.addMethod(method);
+        method.setNumber(++methodNumber);
+        methods.put(signature, method);
+        return method;
+    }
+
+    private static Type toType(String typeName) {
+        int dimensions = 0;
+        while (typeName.endsWith("[]")) {
+            typeName = typeName.substring(0, typeName.length() - 2);
+            dimensions++;
+        }
+        Type type = switch (typeName) {
+            case "void" -> VoidType.v();
+            case "boolean" -> BooleanType.v();
+            case "byte" -> ByteType.v();
+            case "char" -> CharType.v();
+            case "short" -> ShortType.v();
+            case "int" -> IntType.v();
+            case "long" -> LongType.v();
+            case "float" -> FloatType.v();
+            case "double" -> DoubleType.v();
+            default -> RefType.v(typeName);
+        };
+        return dimensions == 0 ? type : ArrayType.v(type, dimensions);
+    }
+
+    @Benchmark
+    public CompactCallGraph scan() {
+        SootMethodTable methodTable = new SootMethodTable(methods.size());
+        for (SootMethod method: methods.values()) {
+            methodTable.register(method);
+        }
+        CallGraphEdgeScanner edgeScanner = new CallGraphEdgeScanner(appInfo, methodTable, PackageFilter.ALL);
+        CompactCallGraph graph = new CompactCallGraph();
+        edgeScanner.mergeInto(edgeScanner.scan(edges, parallelism), graph);
+        graph.compact();
+        return graph;
+    }
+}
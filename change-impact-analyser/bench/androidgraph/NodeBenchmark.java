@@ -0,0 +1,80 @@
+package androidgraph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating and hashing SimplifiedCallGraphNodes, and interning the same values in a CompactCallGraph
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeBenchmark {
+    @Param({"10000"})
+    public int nodeCount;
+
+    private String[] signatures;
+    private SimplifiedCallGraphNode[] nodes;
+
+    @Setup
+    public void setUp() {
+        signatures = new String[nodeCount];
+        nodes = new SimplifiedCallGraphNode[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            signatures[i] = "<com.example.Activity" + (i % 100) + ": void method" + i + "(android.view.View)>";
+            nodes[i] = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, signatures[i]);
+        }
+    }
+
+    @Benchmark
+    public SimplifiedCallGraphNode[] create() {
+        SimplifiedCallGraphNode[] created = new SimplifiedCallGraphNode[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            created[i] = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, signatures[i]);
+        }
+        return created;
+    }
+
+    @Benchmark
+    public int hash() {
+        int hash = 0;
+        for (SimplifiedCallGraphNode node: nodes) {
+            hash += node.hashCode();
+        }
+        return hash;
+    }
+
+    @Benchmark
+    public Set<SimplifiedCallGraphNode> hashSet() {
+        Set<SimplifiedCallGraphNode> set = new HashSet<>();
+        for (SimplifiedCallGraphNode node: nodes) {
+            set.add(node);
+        }
+        return set;
+    }
+
+    @Benchmark
+    public CompactCallGraph intern() {
+        CompactCallGraph graph = new CompactCallGraph();
+        for (String signature: signatures) {
+            graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, signature);
+        }
+        return graph;
+    }
+}
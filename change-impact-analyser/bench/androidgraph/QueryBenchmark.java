@@ -0,0 +1,125 @@
+package androidgraph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The traversals behind APKAnalyser.getRelatedViews and getRelatedActivities, with and without a ReachabilityIndex,
+ * their ranked top-k variants, the forward reachability of a view, and a batched change impact query, on synthetic graphs of increasing size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    private static final int QUERY_COUNT = 256;
+    private static final int RANKED_RESULTS = 10;
+
+    @Param({"1000", "10000", "100000"})
+    public int functionCount;
+
+    @Param({"deep", "wide"})
+    public String shape;
+
+    private CompactCallGraph graph;
+    private ReachabilityIndex reachabilityIndex;
+    private int[] functions;
+    private int[] views;
+    private int[] activities;
+    private List<SimplifiedCallGraphNode> changedMethods;
+    private int[] changedMethodNodes;
+    private int query;
+
+    @Setup
+    public void setUp() {
+        graph = SyntheticGraphs.build(functionCount, shape, 42);
+        reachabilityIndex = new ReachabilityIndex(graph);
+        functions = SyntheticGraphs.sampleNodes(graph, SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, QUERY_COUNT, 1);
+        views = SyntheticGraphs.sampleNodes(graph, SimplifiedCallGraphNode.NODE_TYPE_VIEW, QUERY_COUNT, 2);
+        activities = SyntheticGraphs.sampleNodes(graph, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, QUERY_COUNT, 3);
+        changedMethods = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            changedMethods.add(graph.getNode(functions[i]));
+        }
+        changedMethodNodes = Arrays.copyOf(functions, 16);
+    }
+
+    private int nextQuery() {
+        query = (query + 1) % QUERY_COUNT;
+        return query;
+    }
+
+    @Benchmark
+    public BitSet relatedViews() {
+        return graph.traceBack(functions[nextQuery()], SimplifiedCallGraphNode.NODE_TYPE_VIEW);
+    }
+
+    @Benchmark
+    public BitSet relatedActivities() {
+        return graph.traceBack(views[nextQuery()], SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY);
+    }
+
+    @Benchmark
+    public BitSet indexedRelatedViews() {
+        return reachabilityIndex.getReachable(functions[nextQuery()], SimplifiedCallGraphNode.NODE_TYPE_VIEW);
+    }
+
+    @Benchmark
+    public BitSet indexedRelatedActivities() {
+        return reachabilityIndex.getReachable(views[nextQuery()], SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY);
+    }
+
+    @Benchmark
+    public List<RankedNode> rankedViews() {
+        return RankedTraceBack.rank(graph, new int[] {functions[nextQuery()]}, SimplifiedCallGraphNode.NODE_TYPE_VIEW,
+                RANKED_RESULTS, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<RankedNode> rankedActivities() {
+        return RankedTraceBack.rank(graph, new int[] {views[nextQuery()]}, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY,
+                RANKED_RESULTS, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<RankedNode> rankedActivitiesOfChangedMethods() {
+        return RankedTraceBack.rank(graph, changedMethodNodes, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY,
+                RANKED_RESULTS, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public BitSet activitiesOfChangedMethods() {
+        BitSet activities = new BitSet();
+        for (int node: changedMethodNodes) {
+            activities.or(graph.traceBack(node, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY));
+        }
+        return activities;
+    }
+
+    @Benchmark
+    public BitSet reachableFunctions() {
+        return graph.traceForward(new int[] {activities[nextQuery()]}, SimplifiedCallGraphNode.NODE_TYPE_FUNCTION);
+    }
+
+    @Benchmark
+    public ChangeImpact changeImpact() {
+        return ChangeImpact.compute(graph, changedMethods);
+    }
+}
@@ -0,0 +1,80 @@
+package androidgraph;
+
+import java.util.Random;
+
+/**
+ * Random call graphs with the node and edge kinds of an analysed app, for the benchmarks.
+ * For n functions there are n / 100 activities, n / 20 views and n / 200 layouts. Every function is declared by an
+ * activity, views and layouts are looked up by activities and each layout holds some of the views.
+ * <p>
+ * Shapes: "deep" calls form long chains with a few random shortcuts, "wide" functions have several random callers.
+ */
+final class SyntheticGraphs {
+    private SyntheticGraphs() {
+    }
+
+    static CompactCallGraph build(int functionCount, String shape, long seed) {
+        Random random = new Random(seed);
+        int activityCount = Math.max(1, functionCount / 100);
+        int viewCount = Math.max(1, functionCount / 20);
+        int layoutCount = Math.max(1, functionCount / 200);
+        CompactCallGraph graph = new CompactCallGraph();
+
+        int[] activities = new int[activityCount];
+        for (int i = 0; i < activityCount; i++) {
+            activities[i] = graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, "com.example.Activity" + i);
+        }
+        int[] functions = new int[functionCount];
+        for (int i = 0; i < functionCount; i++) {
+            int activity = i % activityCount;
+            functions[i] = graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION,
+                    "<com.example.Activity" + activity + ": void method" + i + "()>");
+            graph.addEdge(functions[i], activities[activity]);
+        }
+        for (int i = 1; i < functionCount; i++) {
+            switch (shape) {
+                case "deep":
+                    graph.addEdge(functions[i], functions[i - 1]);
+                    if (random.nextInt(10) == 0) {
+                        graph.addEdge(functions[i], functions[random.nextInt(i)]);
+                    }
+                    break;
+                case "wide":
+                    for (int caller = 0; caller < 4; caller++) {
+                        graph.addEdge(functions[i], functions[random.nextInt(functionCount)]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown graph shape " + shape);
+            }
+        }
+        int[] layouts = new int[layoutCount];
+        for (int i = 0; i < layoutCount; i++) {
+            layouts[i] = graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_LAYOUT, "com.example:layout/layout" + i);
+            graph.addEdge(layouts[i], activities[random.nextInt(activityCount)]);
+        }
+        for (int i = 0; i < viewCount; i++) {
+            int view = graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_VIEW, "com.example:id/view" + i);
+            graph.addEdge(view, activities[random.nextInt(activityCount)]);
+            graph.addEdge(view, layouts[random.nextInt(layoutCount)]);
+        }
+        graph.compact();
+        return graph;
+    }
+
+    /**
+     * @return ids of count random nodes of the given type
+     */
+    static int[] sampleNodes(CompactCallGraph graph, int nodeType, int count, long seed) {
+        Random random = new Random(seed);
+        int[] nodes = new int[count];
+        int found = 0;
+        while (found < count) {
+            int node = random.nextInt(graph.getNodeCount());
+            if (graph.getNodeType(node) == nodeType) {
+                nodes[found++] = node;
+            }
+        }
+        return nodes;
+    }
+}
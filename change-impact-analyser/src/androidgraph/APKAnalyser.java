@@ -4,11 +4,10 @@ import javassist.Loader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmlpull.v1.XmlPullParserException;
+import soot.G;
 import soot.Scene;
 import soot.SootClass;
 import soot.SootMethod;
-import soot.Value;
-import soot.jimple.InvokeExpr;
 import soot.jimple.infoflow.android.SetupApplication;
 import soot.jimple.infoflow.android.manifest.ProcessManifest;
 import soot.jimple.infoflow.android.resources.ARSCFileParser;
@@ -17,23 +16,49 @@ import soot.jimple.infoflow.android.resources.controls.AndroidLayoutControl;
 import soot.jimple.infoflow.android.resources.controls.LayoutControlFactory;
 import soot.jimple.toolkits.callgraph.CallGraph;
 import soot.jimple.toolkits.callgraph.Edge;
-import soot.util.HashMultiMap;
+import soot.options.Options;
 import soot.util.MultiMap;
 
-import javax.json.Json;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 
 public class APKAnalyser {
-    private final AppInfo appInfo;
-    private final MultiMap<SimplifiedCallGraphNode, SimplifiedCallGraphNode> simplifiedCallGraph;
-    private final SetupApplication setupApplication;
+    private static final int CONDENSE_QUERY_SAMPLE_SIZE = 1000;
+    private static final int EDGE_CHUNK_SIZE = 1 << 16;
+
+    private AppInfo appInfo;
+    private CompactCallGraph simplifiedCallGraph;
+    private final ComponentClassifier componentClassifier;
     private final LayoutFileParser layoutFileParser;
     private final String appPath;
-    private final String aaptPath;
+    private final String androidPlatformPath;
+    private final ARSCFileParser resourceTable;
     private final Logger logger;
+    private ReachabilityIndex reachabilityIndex;
+    private AnalysisCache analysisCache;
+    private boolean rebuildCache;
+    private int scanParallelism = Runtime.getRuntime().availableProcessors();
+    private boolean verifyParallelScan;
+    private boolean verifyLayoutScan;
+    private String callGraphRecordPath;
+    private String metricsReportPath;
+    private final List<AnalysisListener> listeners = new ArrayList<>();
+    private AnalysisMetrics metrics;
+    private CallGraphMode callGraphMode = CallGraphMode.DEFAULT;
+    private int callbackTimeoutSeconds = 60;
+    private PackageFilter packageFilter = PackageFilter.ALL;
+    private boolean lowMemory;
+    private DemandCallGraph demandCallGraph;
+    // Dex files read by getComponentKinds for the classes the classifier has not seen
+    private DexMethodScanner componentDex;
 
 
     /**
@@ -43,10 +68,10 @@ public class APKAnalyser {
      * @throws IOException when APK file is not found
      * @throws XmlPullParserException when parsing the manifest file fails
      */
-    public APKAnalyser(String _appPath, String _androidPlatformPath, String _aaptPath)
+    public APKAnalyser(String _appPath, String _androidPlatformPath)
             throws IOException, XmlPullParserException {
         this.appPath = _appPath;
-        this.aaptPath = _aaptPath;
+        this.androidPlatformPath = _androidPlatformPath;
         this.logger =  LoggerFactory.getLogger(getClass());
 
         // Setup FlowDroid application
@@ -55,57 +80,491 @@ public class APKAnalyser {
             throw new RuntimeException(String.format("Target APK file %s does not exist", targetAPK.getCanonicalPath()));
         }
         // FlowDroid data
-        ARSCFileParser resources = new ARSCFileParser();
-        resources.parse(targetAPK.getAbsolutePath());
-        ProcessManifest manifest = new ProcessManifest(targetAPK, resources);
-        this.setupApplication = new SetupApplication(_androidPlatformPath, _appPath);
-        this.layoutFileParser = new LayoutFileParser(manifest.getPackageName(), resources);
+        this.resourceTable = new ARSCFileParser();
+        resourceTable.parse(targetAPK.getAbsolutePath());
+        ProcessManifest manifest = new ProcessManifest(targetAPK, resourceTable);
+        this.layoutFileParser = new LayoutFileParser(manifest.getPackageName(), resourceTable);
 
         this.appInfo = new AppInfo(manifest.getApplicationName(), manifest.getPackageName());
-        this.simplifiedCallGraph = new HashMultiMap<>();
+        this.simplifiedCallGraph = new CompactCallGraph();
+        this.componentClassifier = new ComponentClassifier();
+    }
+
+    /**
+     * Constructor of the APKAnalyser
+     * @deprecated resource IDs are read from the APK resource table, aapt is no longer used
+     */
+    @Deprecated
+    public APKAnalyser(String _appPath, String _androidPlatformPath, String _aaptPath)
+            throws IOException, XmlPullParserException {
+        this(_appPath, _androidPlatformPath);
+    }
+
+    /**
+     * Keep analysis results in the given directory, keyed by the APK content and the analyser configuration.
+     * A later analyse() of the same APK with the same configuration loads the results instead of running FlowDroid
+     * @param cacheDirectory directory of the cache entries, created if needed
+     */
+    public void setCacheDirectory(String cacheDirectory) {
+        this.analysisCache = new AnalysisCache(new File(cacheDirectory));
+    }
+
+    /**
+     * @param _rebuildCache when true, analyse() ignores an existing cache entry and replaces it
+     */
+    public void setRebuildCache(boolean _rebuildCache) {
+        this.rebuildCache = _rebuildCache;
+    }
+
+    /**
+     * @param _scanParallelism number of threads scanning the FlowDroid call graph edges and the layout files, 1 for
+     *                         a sequential scan
+     */
+    public void setScanParallelism(int _scanParallelism) {
+        if (_scanParallelism < 1) {
+            throw new IllegalArgumentException("Scan parallelism has to be at least 1");
+        }
+        this.scanParallelism = _scanParallelism;
+    }
+
+    /**
+     * @param _verifyParallelScan when true, the parallel edge scan is repeated on one thread, compared with the
+     *                            sequential result and the speedup is logged
+     */
+    public void setVerifyParallelScan(boolean _verifyParallelScan) {
+        this.verifyParallelScan = _verifyParallelScan;
+    }
+
+    /**
+     * @param _verifyLayoutScan when true, the layouts are parsed again with the FlowDroid layout parser, compared
+     *                          with the scanned layouts and the speedup is logged. Not done in DEX_PRESCAN mode, where
+     *                          the FlowDroid parser has no Scene to resolve the view classes
+     */
+    public void setVerifyLayoutScan(boolean _verifyLayoutScan) {
+        this.verifyLayoutScan = _verifyLayoutScan;
+    }
+
+    /**
+     * @param _callGraphRecordPath file to record the FlowDroid call graph edges to during analyse(), so the edge
+     *                             scan can be replayed by the benchmarks, see CallGraphRecording. Nothing is
+     *                             recorded when the results are loaded from the cache
+     */
+    public void setCallGraphRecordFile(String _callGraphRecordPath) {
+        this.callGraphRecordPath = _callGraphRecordPath;
+    }
+
+    /**
+     * In low memory mode the FlowDroid call graph is projected in chunks of edges, then the call graph and the
+     * points-to analysis are released before the layouts are parsed, and the whole Soot state is reset with
+     * G.reset() before compaction. The call graph is neither recorded nor scanned a second time in this mode
+     * @param _lowMemory when true, analyse() keeps Soot state only as long as the graph projection needs it
+     */
+    public void setLowMemory(boolean _lowMemory) {
+        this.lowMemory = _lowMemory;
+    }
+
+    /**
+     * @param _metricsReportPath file to write the metrics of each analyse() or analyseIncremental() to, as JSON
+     */
+    public void setMetricsReportFile(String _metricsReportPath) {
+        this.metricsReportPath = _metricsReportPath;
+    }
+
+    /**
+     * @param listener receives the phase timings and counters of the next analyses
+     */
+    public void addAnalysisListener(AnalysisListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return phase timings and counters of the last analyse() or analyseIncremental(), null before
+     */
+    public AnalysisMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param _callGraphMode precision of the FlowDroid call graph, DEFAULT if not set
+     */
+    public void setCallGraphMode(CallGraphMode _callGraphMode) {
+        this.callGraphMode = _callGraphMode;
+    }
+
+    /**
+     * @param _callbackTimeoutSeconds time limit of the callback analysis in SPARK_CALLBACK_TIMEOUT mode
+     */
+    public void setCallbackTimeoutSeconds(int _callbackTimeoutSeconds) {
+        this.callbackTimeoutSeconds = _callbackTimeoutSeconds;
+    }
+
+    /**
+     * Keep only the methods of some packages in the simplified call graph, e.g. PackageFilter.appOnly() to drop
+     * the platform and library methods. A call is kept if both methods are accepted, a findViewById or setContentView
+     * if the calling method is accepted. Reachability through dropped methods is lost
+     * @param _packageFilter filter applied while the FlowDroid call graph is projected, PackageFilter.ALL if not set
+     */
+    public void setPackageFilter(PackageFilter _packageFilter) {
+        this.packageFilter = _packageFilter;
+    }
+
+    /**
+     * @return description of the settings that change the analysis result, part of the cache key
+     */
+    private String getConfigurationKey() {
+        String callGraphKey = callGraphMode == CallGraphMode.DEFAULT ? "flowdroid-default" : callGraphMode.name();
+        if (callGraphMode == CallGraphMode.SPARK_CALLBACK_TIMEOUT) {
+            callGraphKey += "-" + callbackTimeoutSeconds + "s";
+        }
+        return "callgraph=" + callGraphKey + (packageFilter.acceptsAll() ? "" : ";" + packageFilter);
     }
 
     public void analyse() {
+        this.metrics = newMetrics();
+        resetAnalysis();
+        String cacheKey = null;
+        if (analysisCache != null) {
+            boolean loaded = false;
+            AnalysisMetrics.PhaseTimer cacheLoadPhase = metrics.startPhase("cache-load");
+            try {
+                cacheKey = analysisCache.computeKey(new File(appPath), getConfigurationKey());
+                loaded = !rebuildCache && loadFromCache(cacheKey);
+            } catch (IOException e) {
+                logger.info("Analysis cache not usable: " + e.getMessage());
+            } finally {
+                cacheLoadPhase.end();
+            }
+            if (loaded) {
+                metrics.increment("cacheHits");
+                finishMetrics();
+                return;
+            }
+        }
+
         processResourceIDMap();
-        processApk();
+        if (callGraphMode == CallGraphMode.DEX_PRESCAN) {
+            processDexPrescan();
+        } else {
+            processApk();
+        }
+
+        if (cacheKey != null) {
+            AnalysisMetrics.PhaseTimer cacheStorePhase = metrics.startPhase("cache-store");
+            try {
+                analysisCache.store(cacheKey, simplifiedCallGraph, appInfo);
+            } catch (IOException e) {
+                logger.info("Cannot write analysis cache entry: " + e.getMessage());
+            } finally {
+                cacheStorePhase.end();
+            }
+        }
+        finishMetrics();
     }
 
-    private boolean determineBaseClass(SootClass targetClass, String classTypeStr) {
-        if (targetClass != null) {
-            if (targetClass.getName().equals(classTypeStr)) {
-                return true;
-            } else if (targetClass.hasOuterClass()) {
-                return determineBaseClass(targetClass.getOuterClass(), classTypeStr);
-            } else if (targetClass.hasSuperclass()) {
-                return determineBaseClass(targetClass.getSuperclass(), classTypeStr);
-            } else {
-                return false;
+    /**
+     * Prepare demand-driven queries instead of building the whole call graph. Only the classes of the APK are loaded
+     * into the Scene, without FlowDroid, and the invoke sites are indexed. The callers of a changed method are
+     * resolved when getRelatedViews, getRelatedActivities, getRankedViews or getChangeImpact first reach it, see
+     * DemandCallGraph. The graph only holds the edges queried so far, so it is not stored in the analysis cache, and
+     * the forward queries, which need the whole graph, are not available
+     */
+    public void analyseOnDemand() {
+        this.metrics = newMetrics();
+        metrics.setAttribute("callGraphMode", "DEMAND");
+        resetAnalysis();
+        processResourceIDMap();
+        AnalysisMetrics.PhaseTimer scenePhase = metrics.startPhase("scene");
+        try {
+            loadSceneClasses();
+        } finally {
+            scenePhase.end();
+        }
+        AnalysisMetrics.PhaseTimer callerIndexPhase = metrics.startPhase("caller-index");
+        try {
+            demandCallGraph = new DemandCallGraph(simplifiedCallGraph);
+            DexPrescan.build(new DexMethodScanner(new File(appPath)), appInfo, packageFilter, simplifiedCallGraph,
+                    metrics, demandCallGraph);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read the dex files of " + appPath, e);
+        } finally {
+            callerIndexPhase.end();
+        }
+        metrics.add("callSites", demandCallGraph.getSiteCount());
+        processLayouts(null);
+        AnalysisMetrics.PhaseTimer compactPhase = metrics.startPhase("compact");
+        try {
+            simplifiedCallGraph.compact();
+        } finally {
+            compactPhase.end();
+        }
+        finishMetrics();
+    }
+
+    /**
+     * Start an analysis from an empty graph and empty app tables, dropping the results of an earlier analysis
+     */
+    private void resetAnalysis() {
+        this.appInfo = new AppInfo(appInfo.getAppName(), appInfo.getPackageName());
+        replaceGraph(new CompactCallGraph());
+    }
+
+    /**
+     * Replace the simplified call graph, together with the state derived from the previous one: the reachability
+     * index and, after analyseOnDemand(), the caller index, which would otherwise add edges to the previous graph
+     */
+    private void replaceGraph(CompactCallGraph graph) {
+        this.simplifiedCallGraph = graph;
+        this.demandCallGraph = null;
+        this.reachabilityIndex = null;
+    }
+
+    /**
+     * Load the classes of the APK and the Android platform into the Scene with the options FlowDroid uses, without
+     * building a call graph
+     */
+    private void loadSceneClasses() {
+        G.reset();
+        Options.v().set_src_prec(Options.src_prec_apk);
+        Options.v().set_process_dir(Collections.singletonList(appPath));
+        Options.v().set_android_jars(androidPlatformPath);
+        Options.v().set_process_multiple_dex(true);
+        Options.v().set_allow_phantom_refs(true);
+        Options.v().set_whole_program(true);
+        Options.v().set_output_format(Options.output_format_none);
+        Scene.v().loadNecessaryClasses();
+    }
+
+    /**
+     * In demand-driven mode, add the callers of the given function nodes to the graph before a backward query
+     */
+    private void expandCallers(Collection<SimplifiedCallGraphNode> nodes) {
+        if (demandCallGraph == null) {
+            return;
+        }
+        List<String> signatures = new ArrayList<>();
+        for (SimplifiedCallGraphNode node: nodes) {
+            if (node.getNodeType() == SimplifiedCallGraphNode.NODE_TYPE_FUNCTION) {
+                signatures.add(node.getNodeValue());
             }
-        } else {
+        }
+        long startTime = System.nanoTime();
+        int expandedCount = demandCallGraph.expand(signatures);
+        if (expandedCount > 0) {
+            this.reachabilityIndex = null;
+            logger.info("Expanded the callers of " + expandedCount + " methods in " +
+                    (System.nanoTime() - startTime) / 1_000_000 + " ms, " + demandCallGraph.getExpandedMethodCount() +
+                    " methods expanded so far");
+        }
+    }
+
+    private void checkWholeGraph(String query) {
+        if (demandCallGraph != null) {
+            throw new IllegalStateException(query + " needs the whole call graph, use analyse() instead of analyseOnDemand()");
+        }
+    }
+
+    /**
+     * Analyse this APK as a new version of an already analysed APK. Added, removed and modified methods are found by
+     * hashing the method bodies of both dex files, the graph of the previous version is reused and only the classes
+     * declaring changed methods are re-read, without running FlowDroid. Calls from changed bodies are resolved by
+     * declared type, so they are less precise than the edges of a full analysis
+     * @param previousVersion analyser of the previous version, on which analyse() has been called
+     * @return changed methods, whose getChangedMethodNodes() can be passed to getChangeImpact()
+     * @throws IOException when the dex files of either APK cannot be read
+     */
+    public ApkDiff analyseIncremental(APKAnalyser previousVersion) throws IOException {
+        // Taken before the reset, which would empty it when the previous version is this analyser
+        CompactCallGraph previousGraph = previousVersion.simplifiedCallGraph;
+        if (previousGraph.getNodeCount() == 0) {
+            throw new IllegalStateException("The previous version has to be analysed first");
+        }
+        this.metrics = newMetrics();
+        resetAnalysis();
+        DexMethodScanner currentDex;
+        ApkDiff apkDiff;
+        AnalysisMetrics.PhaseTimer dexDiffPhase = metrics.startPhase("dex-diff");
+        try {
+            DexMethodScanner previousDex = new DexMethodScanner(new File(previousVersion.appPath));
+            currentDex = new DexMethodScanner(new File(appPath));
+            apkDiff = ApkDiff.compute(previousDex, currentDex);
+        } finally {
+            dexDiffPhase.end();
+        }
+        logger.info("Changes from " + previousVersion.appPath + ": " + apkDiff);
+        metrics.add("addedMethods", apkDiff.getAddedMethods().size());
+        metrics.add("removedMethods", apkDiff.getRemovedMethods().size());
+        metrics.add("modifiedMethods", apkDiff.getModifiedMethods().size());
+        metrics.add("changedClasses", apkDiff.getChangedClasses().size());
+
+        processResourceIDMap();
+        AnalysisMetrics.PhaseTimer graphPatchPhase = metrics.startPhase("graph-patch");
+        try {
+            replaceGraph(IncrementalAnalysis.patch(previousGraph, apkDiff, currentDex, appInfo));
+        } finally {
+            graphPatchPhase.end();
+        }
+        processLayouts(currentDex);
+        AnalysisMetrics.PhaseTimer compactPhase = metrics.startPhase("compact");
+        try {
+            simplifiedCallGraph.compact();
+        } finally {
+            compactPhase.end();
+        }
+        finishMetrics();
+        return apkDiff;
+    }
+
+    private AnalysisMetrics newMetrics() {
+        AnalysisMetrics analysisMetrics = new AnalysisMetrics(appPath);
+        analysisMetrics.setAttribute("callGraphMode", callGraphMode.name());
+        analysisMetrics.setAttribute("packageFilter", packageFilter.toString());
+        analysisMetrics.setAttribute("lowMemory", Boolean.toString(lowMemory));
+        for (AnalysisListener listener: listeners) {
+            analysisMetrics.addListener(listener);
+        }
+        return analysisMetrics;
+    }
+
+    /**
+     * Count the nodes and edges of the graph, end the metrics and write the report
+     */
+    private void finishMetrics() {
+        int[] nodeCounts = new int[SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY + 1];
+        for (int node = 0; node < simplifiedCallGraph.getNodeCount(); node++) {
+            nodeCounts[simplifiedCallGraph.getNodeType(node)]++;
+        }
+        metrics.add("nodes.function", nodeCounts[SimplifiedCallGraphNode.NODE_TYPE_FUNCTION]);
+        metrics.add("nodes.view", nodeCounts[SimplifiedCallGraphNode.NODE_TYPE_VIEW]);
+        metrics.add("nodes.layout", nodeCounts[SimplifiedCallGraphNode.NODE_TYPE_LAYOUT]);
+        metrics.add("nodes.activity", nodeCounts[SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY]);
+        metrics.add("graphEdges", simplifiedCallGraph.getEdgeCount());
+        metrics.add("appInfoBytes", appInfo.estimateMemoryBytes());
+        metrics.add("appInfoBoxedBytes", appInfo.estimateBoxedMemoryBytes());
+        metrics.finish();
+        logger.info("Call graph mode " + callGraphMode + ": " + simplifiedCallGraph.getNodeCount() + " nodes, " +
+                simplifiedCallGraph.getEdgeCount() + " edges in " + metrics.getTotalWallMillis() + " ms");
+        logger.info("App tables use about " + metrics.getCounter("appInfoBytes") / 1024 + " KB, about " +
+                metrics.getCounter("appInfoBoxedBytes") / 1024 + " KB in boxed maps");
+        logger.info("Peak heap " + metrics.getPeakHeapBytes() / (1 << 20) + " MB" + (lowMemory ? " in low memory mode" : ""));
+        logger.info("Analysis metrics of " + metrics);
+        if (metricsReportPath != null) {
+            try {
+                metrics.writeJson(new File(metricsReportPath));
+            } catch (IOException e) {
+                logger.info("Cannot write the metrics report: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean loadFromCache(String cacheKey) {
+        CompactCallGraph cachedGraph = new CompactCallGraph();
+        AppInfo cachedAppInfo = new AppInfo(appInfo.getAppName(), appInfo.getPackageName());
+        if (!analysisCache.load(cacheKey, cachedGraph, cachedAppInfo)) {
             return false;
         }
+        replaceGraph(cachedGraph);
+        this.appInfo = cachedAppInfo;
+        logger.info("Analysis loaded from cache");
+        return true;
     }
 
     /**
      * Process the APK file to generate and refine the call graph, gather activities, views and their relationships
      */
     private void processApk() {
-        setupApplication.constructCallgraph();
-        CallGraph callGraph = Scene.v().getCallGraph();
-        // Gather functions
-        for (SootMethod sootMethod: Scene.v().getMethodNumberer()) {
+        AnalysisMetrics.PhaseTimer callgraphPhase = metrics.startPhase("callgraph");
+        try {
+            SetupApplication setupApplication = new SetupApplication(androidPlatformPath, appPath);
+            callGraphMode.configure(setupApplication.getConfig(), callbackTimeoutSeconds);
+            setupApplication.constructCallgraph();
+        } finally {
+            callgraphPhase.end();
+        }
+        projectCallGraph();
+        if (lowMemory) {
+            // The layout parser still resolves the control classes in the Scene, only the call graph is dropped here
+            AnalysisMetrics.PhaseTimer sootReleasePhase = metrics.startPhase("soot-release");
             try {
-                appInfo.addFunction(sootMethod.getDeclaringClass().getName(), sootMethod.toString());
-                if (determineBaseClass(sootMethod.getDeclaringClass(), "android.app.Activity")) {
-                    SimplifiedCallGraphNode functionNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, sootMethod.toString());
-                    SimplifiedCallGraphNode activityNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, sootMethod.getDeclaringClass().toString());
-                    simplifiedCallGraph.put(functionNode, activityNode);
-                    System.out.println(functionNode.toString() + "  " + activityNode.toString());
-                }
+                Scene.v().releaseCallGraph();
+                Scene.v().releasePointsToAnalysis();
+                Scene.v().releaseReachableMethods();
+                Scene.v().releaseSideEffectAnalysis();
+            } finally {
+                sootReleasePhase.end();
+            }
+        }
+
+        processLayouts(null);
+        if (lowMemory) {
+            AnalysisMetrics.PhaseTimer sootResetPhase = metrics.startPhase("soot-reset");
+            try {
+                G.reset();
+            } finally {
+                sootResetPhase.end();
+            }
+        }
+        AnalysisMetrics.PhaseTimer compactPhase = metrics.startPhase("compact");
+        try {
+            simplifiedCallGraph.compact();
+        } finally {
+            compactPhase.end();
+        }
+    }
+
+    /**
+     * Build an approximate graph from the dex files of the APK, without running FlowDroid
+     */
+    private void processDexPrescan() {
+        AnalysisMetrics.PhaseTimer dexPrescanPhase = metrics.startPhase("dex-prescan");
+        DexMethodScanner dex;
+        try {
+            dex = new DexMethodScanner(new File(appPath));
+            DexPrescan.build(dex, appInfo, packageFilter, simplifiedCallGraph, metrics);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read the dex files of " + appPath, e);
+        } finally {
+            dexPrescanPhase.end();
+        }
+        processLayouts(dex);
+        AnalysisMetrics.PhaseTimer compactPhase = metrics.startPhase("compact");
+        try {
+            simplifiedCallGraph.compact();
+        } finally {
+            compactPhase.end();
+        }
+    }
+
+    /**
+     * Add the functions, their activities and the edges of the FlowDroid call graph to the simplified call graph.
+     * The method table and the scanned edges are only referenced from here, so they can be collected once it returns
+     */
+    private void projectCallGraph() {
+        // Gather functions, formatting each signature once
+        SootMethodTable methodTable = new SootMethodTable(Scene.v().getMethodNumberer().size());
+        AnalysisMetrics.PhaseTimer methodsPhase = metrics.startPhase("methods");
+        try {
+            for (SootMethod sootMethod: Scene.v().getMethodNumberer()) {
+                metrics.increment("methods");
+                try {
+                    SootClass declaringClass = sootMethod.getDeclaringClass();
+                    String signature = methodTable.register(sootMethod);
+                    appInfo.addFunction(declaringClass.getName(), signature);
+                    if ((componentClassifier.getKinds(declaringClass) & ComponentClassifier.KIND_ACTIVITY) != 0
+                            && packageFilter.accepts(declaringClass.getName())) {
+                        int functionNode = methodTable.contains(sootMethod.getNumber())
+                                ? methodTable.internNode(sootMethod.getNumber(), simplifiedCallGraph)
+                                : simplifiedCallGraph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, signature);
+                        int activityNode = simplifiedCallGraph.internNode(SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, declaringClass.toString());
+                        simplifiedCallGraph.addEdge(functionNode, activityNode);
+                        logger.debug(simplifiedCallGraph.getNode(functionNode) + "  " + simplifiedCallGraph.getNode(activityNode));
+                    }
 
-            } catch (RuntimeException runtimeException) {
-                appInfo.addFunction(sootMethod.getDeclaration()); //Runtime Exception is thrown if using toString()
+                } catch (RuntimeException runtimeException) {
+                    appInfo.addFunction(sootMethod.getDeclaration()); //Runtime Exception is thrown if using toString()
+                }
             }
+        } finally {
+            methodsPhase.end();
         }
 
         // Go through FlowDroid call graph to gather:
@@ -113,162 +572,489 @@ public class APKAnalyser {
         // Activity class to layout (by layout resource id)
         // Activity class to view (by view resource id)
 
+        CallGraphEdgeScanner edgeScanner = new CallGraphEdgeScanner(appInfo, methodTable, packageFilter);
+        if (lowMemory) {
+            scanEdgesInChunks(edgeScanner);
+            return;
+        }
+        CallGraph callGraph = Scene.v().getCallGraph();
+        List<Edge> edges = new ArrayList<>(callGraph.size());
         for (Edge edge : callGraph) {
-            SootMethod smSrc = edge.src();
-            SootMethod smDest = edge.tgt();
-            SimplifiedCallGraphNode srcNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, smSrc.toString());
-            SimplifiedCallGraphNode destNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, smDest.toString());
-            simplifiedCallGraph.put(destNode, srcNode);
-
-            if (edge.srcStmt() != null && edge.srcStmt().containsInvokeExpr()) {
-                InvokeExpr invokeExpr = edge.srcStmt().getInvokeExpr();
-                if (invokeExpr != null) {
-                    String methodName = invokeExpr.getMethod().getName();
-                    if (methodName.equals("findViewById")) {
-                        List<Value> values = invokeExpr.getArgs();
-                        try {
-                            int viewID = Integer.parseInt(values.get(0).toString());
-                            String viewName = appInfo.getResourceIDStr(viewID);
-                            if (viewName != null) {
-                                SimplifiedCallGraphNode activityNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, smSrc.getDeclaringClass().getName());
-                                SimplifiedCallGraphNode viewNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_VIEW, viewName);
-                                simplifiedCallGraph.put(viewNode, activityNode);
-                            } else {
-                                logger.info("resource id " + viewID + " not found in resources");
-                            }
-                        } catch (Exception e) {
-                            logger.info("Ignoring a activity-view relation with unknown view id " + values.get(0).toString() + " in " + edge.srcStmt().toString());
-                        }
-                    } else if (methodName.equals("setContentView")) {
-                        List<Value> values = invokeExpr.getArgs();
-                        try {
-                            int layoutID = Integer.parseInt(values.get(0).toString());
-                            String layoutName = appInfo.getResourceIDStr(layoutID);
-                            if (layoutName != null) {
-                                SimplifiedCallGraphNode activityNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, smSrc.getDeclaringClass().getName());
-                                SimplifiedCallGraphNode layoutNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_LAYOUT, layoutName);
-                                simplifiedCallGraph.put(layoutNode, activityNode);
-                            } else {
-                                logger.info("resource id " + layoutID + " not found in resources");
-                            }
-                        } catch (Exception e) {
-                            logger.info("Ignoring a activity-view relation with unknown view id " + values.get(0).toString() + " in " + edge.srcStmt().toString());
-                        }
-                    }
+            edges.add(edge);
+        }
+        metrics.add("callGraphEdges", edges.size());
+        if (callGraphRecordPath != null) {
+            try {
+                CallGraphRecording.write(edges, new File(callGraphRecordPath));
+            } catch (IOException e) {
+                logger.info("Cannot record the call graph: " + e.getMessage());
+            }
+        }
+        List<CallGraphEdgeScanner.PartialGraph> partialGraphs;
+        long startTime = System.nanoTime();
+        AnalysisMetrics.PhaseTimer edgeScanPhase = metrics.startPhase("edge-scan");
+        try {
+            partialGraphs = edgeScanner.scan(edges, scanParallelism);
+            edgeScanner.mergeInto(partialGraphs, simplifiedCallGraph);
+        } finally {
+            edgeScanPhase.end();
+        }
+        long scanTime = System.nanoTime() - startTime;
+        CallGraphEdgeScanner.countSkippedLookups(partialGraphs, metrics);
+        logger.info("Scanned " + edges.size() + " call graph edges on " + scanParallelism + " threads in " +
+                scanTime / 1_000_000 + " ms");
+        if (verifyParallelScan && scanParallelism > 1) {
+            startTime = System.nanoTime();
+            List<CallGraphEdgeScanner.PartialGraph> sequentialPartialGraphs = edgeScanner.scan(edges, 1);
+            long sequentialScanTime = System.nanoTime() - startTime;
+            if (!CallGraphEdgeScanner.sameEdges(partialGraphs, sequentialPartialGraphs)) {
+                throw new IllegalStateException("Parallel call graph edge scan differs from the sequential scan");
+            }
+            logger.info(String.format("Sequential edge scan took %d ms, parallel speedup %.2fx",
+                    sequentialScanTime / 1_000_000, (double) sequentialScanTime / Math.max(1, scanTime)));
+        }
+    }
+
+    /**
+     * Scan the call graph edges a chunk at a time, adding each chunk to the graph before the next one is gathered
+     */
+    private void scanEdgesInChunks(CallGraphEdgeScanner edgeScanner) {
+        CallGraph callGraph = Scene.v().getCallGraph();
+        metrics.add("callGraphEdges", callGraph.size());
+        List<Edge> chunk = new ArrayList<>(EDGE_CHUNK_SIZE);
+        long startTime = System.nanoTime();
+        AnalysisMetrics.PhaseTimer edgeScanPhase = metrics.startPhase("edge-scan");
+        try {
+            for (Edge edge: callGraph) {
+                chunk.add(edge);
+                if (chunk.size() == EDGE_CHUNK_SIZE) {
+                    scanChunk(chunk, edgeScanner);
+                    chunk.clear();
                 }
             }
+            scanChunk(chunk, edgeScanner);
+        } finally {
+            edgeScanPhase.end();
+        }
+        logger.info("Scanned " + callGraph.size() + " call graph edges in chunks of " + EDGE_CHUNK_SIZE + " on " +
+                scanParallelism + " threads in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+    }
+
+    private void scanChunk(List<Edge> chunk, CallGraphEdgeScanner edgeScanner) {
+        List<CallGraphEdgeScanner.PartialGraph> partialGraphs = edgeScanner.scan(chunk, scanParallelism);
+        edgeScanner.mergeInto(partialGraphs, simplifiedCallGraph);
+        CallGraphEdgeScanner.countSkippedLookups(partialGraphs, metrics);
+        metrics.increment("edgeChunks");
+    }
+
+    /**
+     * Parse the layout files of the APK to gather layout to view and layout to included layout relationships
+     * @param dex dex files the view classes are looked up in when the Scene does not hold the classes of this APK,
+     *            null to look them up in the Scene
+     */
+    private void processLayouts(DexMethodScanner dex) {
+        AnalysisMetrics.PhaseTimer layoutsPhase = metrics.startPhase("layouts");
+        try {
+            parseLayouts(dex);
+        } finally {
+            layoutsPhase.end();
+        }
+    }
 
+    private void parseLayouts(DexMethodScanner dex) {
+        LayoutScanner layoutScanner = new LayoutScanner(new File(appPath), scanParallelism);
+        try {
+            layoutScanner.scan();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot scan the layouts of " + appPath, e);
+        }
+        metrics.add("layoutFiles", layoutScanner.getLayoutCount());
+        metrics.add("layoutElements", layoutScanner.getElementCount());
+        // Without FlowDroid the Scene is empty, or holds the classes of another APK, and the view classes are looked up
+        // in the dex files instead. There are no Soot classes to create the controls from then, so only the views of
+        // each layout are recorded
+        Predicate<String> isViewTag = dex != null ? tag -> DexPrescan.isViewTag(dex, tag) : tag -> findViewClass(tag) != null;
+        LayoutScanner.ControlFactory controlFactory = dex != null ? null : createControlFactory();
+        metrics.add("layoutViews", layoutScanner.fillAppInfo(appInfo, isViewTag, controlFactory, this::getLayoutFile));
+        logger.info("Scanned " + layoutScanner.getLayoutCount() + " layout files on " + scanParallelism + " threads in " +
+                layoutScanner.getScanNanos() / 1_000_000 + " ms");
+        if (verifyLayoutScan && dex == null) {
+            verifyLayoutScan(layoutScanner.getScanNanos());
         }
 
+        for (String layout: appInfo.getLayouts()) {
+            int layoutNode = simplifiedCallGraph.internNode(SimplifiedCallGraphNode.NODE_TYPE_LAYOUT, layout);
+            for (int view: appInfo.getLayoutViews(layout)) {
+                if (appInfo.getResourceIDStr(view) != null) {
+                    int viewNode = simplifiedCallGraph.internNode(SimplifiedCallGraphNode.NODE_TYPE_VIEW, appInfo.getResourceIDStr(view));
+                    simplifiedCallGraph.addEdge(viewNode, layoutNode);
+                }
+            }
+            for (String includedLayout: appInfo.getLayoutInclusions(layout)) {
+                int includedLayoutNode = simplifiedCallGraph.internNode(SimplifiedCallGraphNode.NODE_TYPE_LAYOUT, includedLayout);
+                simplifiedCallGraph.addEdge(includedLayoutNode, layoutNode);
+            }
+        }
+    }
 
+    /**
+     * @return factory creating the controls of the scanned view elements like the FlowDroid layout parser does
+     */
+    private LayoutScanner.ControlFactory createControlFactory() {
+        LayoutControlFactory layoutControlFactory = new LayoutControlFactory();
+        layoutControlFactory.setLoadAdditionalAttributes(true);
+        return (layoutFile, tag, element) -> layoutControlFactory.createLayoutControl(layoutFile, findViewClass(tag), element);
+    }
+
+    /**
+     * Parse the layouts again with the FlowDroid parser, compare its controls and inclusions with the scanned ones
+     * and log the speedup. The application tables are only read
+     */
+    private void verifyLayoutScan(long scanNanos) {
+        long startTime = System.nanoTime();
         LayoutControlFactory layoutControlFactory = new LayoutControlFactory();
         layoutControlFactory.setLoadAdditionalAttributes(true);
         layoutFileParser.setControlFactory(layoutControlFactory);
         layoutFileParser.parseLayoutFileDirect(this.appPath);
+        long parseTime = System.nanoTime() - startTime;
 
         MultiMap<String, AndroidLayoutControl> userControls = layoutFileParser.getUserControls();
-
-        for (String layoutFile: userControls.keySet()) {
-            for (AndroidLayoutControl androidLayoutControl: userControls.get(layoutFile)) {
-                appInfo.addLayoutView(layoutFile, androidLayoutControl.getID());
-                appInfo.addView(androidLayoutControl.getID(), androidLayoutControl);
+        MultiMap<String, String> layoutInclusions = layoutFileParser.getLayoutInclusions();
+        Set<String> layouts = new HashSet<>(appInfo.getLayouts());
+        layouts.addAll(userControls.keySet());
+        layouts.addAll(layoutInclusions.keySet());
+        for (String layout: layouts) {
+            int[] parsedViews = userControls.get(layout).stream().mapToInt(AndroidLayoutControl::getID).sorted().distinct().toArray();
+            for (AndroidLayoutControl androidLayoutControl: userControls.get(layout)) {
+                AndroidLayoutControl view = appInfo.getView(androidLayoutControl.getID());
+                if (view == null || view.getViewClass() != androidLayoutControl.getViewClass()) {
+                    throw new IllegalStateException("View " + androidLayoutControl.getID() + " of " + layout
+                            + " differs from the FlowDroid layout parser");
+                }
+            }
+            if (!Arrays.equals(parsedViews, appInfo.getLayoutViews(layout))
+                    || !layoutInclusions.get(layout).equals(appInfo.getLayoutInclusions(layout))) {
+                throw new IllegalStateException("Layout scan of " + layout + " differs from the FlowDroid layout parser");
             }
         }
-        for (String layout: appInfo.getLayouts()) {
-            SimplifiedCallGraphNode layoutNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_LAYOUT, layout);
-            for (int view: appInfo.getLayoutViews(layout)) {
-                if (appInfo.getResourceIDStr(view) != null) {
-                    SimplifiedCallGraphNode viewNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_VIEW, appInfo.getResourceIDStr(view));
-                    simplifiedCallGraph.put(viewNode, layoutNode);
-                }
+        logger.info(String.format("FlowDroid layout parser took %d ms, layout scan speedup %.2fx",
+                parseTime / 1_000_000, (double) parseTime / Math.max(1, scanNanos)));
+    }
+
+    /**
+     * @param tag element name of a layout file
+     * @return view class the name resolves to in the Scene, trying the packages FlowDroid tries, or null
+     */
+    private SootClass findViewClass(String tag) {
+        if (tag.contains("(") || tag.contains("<") || tag.contains("/")) {
+            return null;
+        }
+        String[] classNames = {tag, appInfo.getPackageName() + "." + tag, "android.view." + tag,
+                "android.widget." + tag, "android.webkit." + tag};
+        for (String className: classNames) {
+            SootClass sootClass = Scene.v().getSootClassUnsafe(className, false);
+            if (sootClass == null || sootClass.isPhantom()) {
+                continue;
             }
-            for (String includedLayout: layoutFileParser.getLayoutInclusions().get(layout)) {
-                SimplifiedCallGraphNode includedLayoutNode = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_LAYOUT, includedLayout);
-                simplifiedCallGraph.put(includedLayoutNode, layoutNode);
+            for (SootClass superClass = sootClass; ; superClass = superClass.getSuperclass()) {
+                if (superClass.getName().equals("android.view.View")) {
+                    return sootClass;
+                }
+                if (!superClass.hasSuperclass()) {
+                    return null;
+                }
             }
         }
+        return null;
+    }
+
+    /**
+     * @return file of a layout resource, as named in the APK, or null if the ID is not a file resource
+     */
+    private String getLayoutFile(int layoutID) {
+        ARSCFileParser.AbstractResource resource = resourceTable.findResource(layoutID);
+        return resource instanceof ARSCFileParser.StringResource ? ((ARSCFileParser.StringResource) resource).getValue() : null;
     }
 
     private void processResourceIDMap() {
-        // Run aapt command to dump resources
-        ProcessBuilder processBuilder = new ProcessBuilder(aaptPath, "dump", "resources", this.appPath);
-        processBuilder.redirectErrorStream(true);
+        // Fill the resource ID map from the resource table parsed in the constructor
+        AnalysisMetrics.PhaseTimer resourceIdsPhase = metrics.startPhase("resource-ids");
         try {
-            Process process = processBuilder.start();
-            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                String[] subStrings = line.strip().split(" ");
-                int id;
-                String strID;
-                if (subStrings[0].equals("spec")) {
-                    id = Integer.decode(subStrings[2]);
-                    strID = subStrings[3].substring(0, subStrings[3].lastIndexOf(":"));
-                } else if (subStrings[0].equals("resource")) {
-                    id = Integer.decode(subStrings[1]);
-                    strID = subStrings[2].substring(0, subStrings[2].lastIndexOf(":"));
-                } else {
-                    continue;
-                }
-                appInfo.addResourceID(id, strID);
+            appInfo.addResourceIDs(resourceTable);
+        } finally {
+            resourceIdsPhase.end();
+        }
+    }
+
+    /**
+     * @param className fully qualified name of a class of the analysed APK
+     * @return bitmask of the ComponentClassifier.KIND_* constants the class belongs to, 0 if it is not a component
+     */
+    public int getComponentKinds(String className) {
+        int kinds = componentClassifier.getKinds(className);
+        if (kinds >= 0) {
+            return kinds;
+        }
+        // Classes are only classified in the Scene while projecting a FlowDroid call graph, so after a cache hit, a dex
+        // pre-scan or an incremental analysis, and for classes without edges, they are classified from the dex files
+        if (componentDex == null) {
+            try {
+                componentDex = new DexMethodScanner(new File(appPath));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read the dex files of " + appPath, e);
             }
-        } catch (Exception exception) {
-            exception.printStackTrace();
         }
+        return componentDex.getComponentKinds(className);
     }
 
-    private Set<SimplifiedCallGraphNode> traceBackFirst(SimplifiedCallGraphNode baseNode, int targetNodeType) {
-        Set<SimplifiedCallGraphNode> collectedNodes = new HashSet<>();
+    /**
+     * @return the simplified call graph, compacted after analyse()
+     */
+    CompactCallGraph getCallGraph() {
+        return simplifiedCallGraph;
+    }
 
-        Set<SimplifiedCallGraphNode> nodesToProcess = new HashSet<>();
-        Set<SimplifiedCallGraphNode> processedNodes = new HashSet<>();
-
-        nodesToProcess.add(baseNode);
-        while (!nodesToProcess.isEmpty()) {
-            for (SimplifiedCallGraphNode nodeToProcess: nodesToProcess) {
-                Set<SimplifiedCallGraphNode> relatedNodes = simplifiedCallGraph.get(nodeToProcess);
-                for (SimplifiedCallGraphNode relatedNode: relatedNodes) {
-                    if (relatedNode.getNodeType() == targetNodeType) {
-                        collectedNodes.add(relatedNode);
-                    } else if (relatedNode.getNodeType() < targetNodeType && !processedNodes.contains(relatedNode)) {
-                        nodesToProcess.add(relatedNode);
-                    }
-                }
-                processedNodes.add(nodeToProcess);
-                nodesToProcess.remove(nodeToProcess);
-            }
+    /**
+     * @return the functions, resources and layouts of the app, filled by analyse()
+     */
+    AppInfo getAppInfo() {
+        return appInfo;
+    }
+
+    /**
+     * Precompute the view and activity reachability of every node, so that getRelatedViews and getRelatedActivities
+     * become lookups instead of graph walks. Must be called after analyse()
+     * @return the built index
+     */
+    public ReachabilityIndex buildReachabilityIndex() {
+        reachabilityIndex = new ReachabilityIndex(simplifiedCallGraph);
+        logger.info("Reachability index built in " + reachabilityIndex.getBuildTimeMillis() + " ms for " +
+                reachabilityIndex.getViewCount() + " views and " + reachabilityIndex.getActivityCount() +
+                " activities, using about " + reachabilityIndex.getMemoryFootprintBytes() + " bytes");
+        return reachabilityIndex;
+    }
+
+    /**
+     * Condense the call graph with GraphCondenser, keeping the methods of the app package out of the pass-through
+     * collapsing. Must be called after analyse()
+     * @return sizes of the graph before and after, and the speedup of a sample of queries
+     */
+    public GraphCondenser condenseCallGraph() {
+        return condenseCallGraph(PackageFilter.appOnly(appInfo.getPackageName()));
+    }
+
+    /**
+     * Replace the call graph with a copy whose strongly connected components of functions and pass-through methods
+     * outside the app code are merged. getRelatedViews, getRelatedActivities and getChangeImpact give the same results,
+     * merged methods are still found. The condensed graph is not stored in the analysis cache
+     * @param appCode classes whose methods are never collapsed into their caller
+     * @return sizes of the graph before and after, and the speedup of a sample of queries
+     */
+    public GraphCondenser condenseCallGraph(PackageFilter appCode) {
+        checkWholeGraph("Condensing");
+        CompactCallGraph original = simplifiedCallGraph;
+        GraphCondenser condenser = GraphCondenser.condense(original, appCode);
+        condenser.measureQuerySpeedup(original, CONDENSE_QUERY_SAMPLE_SIZE);
+        replaceGraph(condenser.getGraph());
+        if (metrics != null) {
+            metrics.add("condensedNodes", condenser.getOriginalNodeCount() - condenser.getNodeCount());
+            metrics.add("condensedEdges", condenser.getOriginalEdgeCount() - condenser.getEdgeCount());
         }
+        logger.info("Call graph condensed: " + condenser);
+        return condenser;
+    }
 
+    private Set<SimplifiedCallGraphNode> traceBackFirst(int baseNode, int targetNodeType) {
+        if (reachabilityIndex != null) {
+            return toNodes(reachabilityIndex.toGraphNodes(reachabilityIndex.getReachable(baseNode, targetNodeType), targetNodeType));
+        }
+        return toNodes(simplifiedCallGraph.traceBack(baseNode, targetNodeType));
+    }
+
+    private Set<SimplifiedCallGraphNode> toNodes(BitSet nodes) {
+        Set<SimplifiedCallGraphNode> collectedNodes = new HashSet<>();
+        for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+            collectedNodes.add(simplifiedCallGraph.getNode(node));
+        }
         return collectedNodes;
     }
 
     public Set<SimplifiedCallGraphNode> getRelatedViews(SimplifiedCallGraphNode targetNode) {
-        if (simplifiedCallGraph.keySet().contains(targetNode)) {
-            return traceBackFirst(targetNode, SimplifiedCallGraphNode.NODE_TYPE_VIEW);
+        expandCallers(Collections.singleton(targetNode));
+        int node = simplifiedCallGraph.findNode(targetNode);
+        if (node >= 0 && simplifiedCallGraph.hasPredecessors(node)) {
+            return traceBackFirst(node, SimplifiedCallGraphNode.NODE_TYPE_VIEW);
         } else {
             return null;
         }
     }
 
     public Set<SimplifiedCallGraphNode> getRelatedActivities(SimplifiedCallGraphNode targetView) {
-        if (simplifiedCallGraph.keySet().contains(targetView)) {
-            return traceBackFirst(targetView, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY);
+        expandCallers(Collections.singleton(targetView));
+        int node = simplifiedCallGraph.findNode(targetView);
+        if (node >= 0 && simplifiedCallGraph.hasPredecessors(node)) {
+            return traceBackFirst(node, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY);
         } else {
             return null;
         }
     }
 
-    public void dumpCallGraphJSON(String path) {
-        try {
-            FileWriter fileWriter = new FileWriter(path);
-            fileWriter.write("{\n    \"nodes\": {\n");
-            for (SimplifiedCallGraphNode key: simplifiedCallGraph.keySet()) {
-                fileWriter.write("        \"" + key.getUniqueID() + "\": ");
+    /**
+     * Views closest to the changed methods, for a limited test budget. Stops after the call distance at which
+     * maxResults views are found, or at maxDepth, instead of walking the whole backward closure
+     * @param changedMethods function nodes of the changed methods, the ones not in the graph are ignored
+     * @param maxResults number of views returned at most
+     * @param maxDepth number of edges followed at most from a changed method, Integer.MAX_VALUE for no limit
+     * @return views ordered by distance, then by the number of changed methods reaching them
+     */
+    public List<RankedNode> getRankedViews(Collection<SimplifiedCallGraphNode> changedMethods, int maxResults, int maxDepth) {
+        expandCallers(changedMethods);
+        return RankedTraceBack.rank(simplifiedCallGraph, findNodes(changedMethods), SimplifiedCallGraphNode.NODE_TYPE_VIEW,
+                maxResults, maxDepth);
+    }
+
+    /**
+     * Activities closest to the given views, see getRankedViews
+     * @param views view nodes, the ones not in the graph are ignored
+     * @return activities ordered by distance, then by the number of views reaching them
+     */
+    public List<RankedNode> getRankedActivities(Collection<SimplifiedCallGraphNode> views, int maxResults, int maxDepth) {
+        expandCallers(views);
+        return RankedTraceBack.rank(simplifiedCallGraph, findNodes(views), SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY,
+                maxResults, maxDepth);
+    }
+
+    /**
+     * @return distinct ids of the given nodes that are in the graph
+     */
+    private int[] findNodes(Collection<SimplifiedCallGraphNode> nodes) {
+        return getNodeIds(nodes).stream().toArray();
+    }
+
+    /**
+     * App functions that can run from the given views or activities: the functions the activities declare, and every
+     * function these call, following the forward edges of the graph. Views have no forward edges, the handlers they
+     * trigger are functions of the activities that look them up or set their layouts, so a view stands for these
+     * activities
+     * @param startNodes view and activity nodes, the ones not in the graph are ignored
+     * @return graph ids of the reachable functions declared in the app package, which can be intersected with
+     * getNodeIds() of a change set
+     */
+    public BitSet getReachableFunctions(Collection<SimplifiedCallGraphNode> startNodes) {
+        checkWholeGraph("Forward reachability");
+        return reachableAppFunctions(findNodes(startNodes));
+    }
+
+    private BitSet reachableAppFunctions(int[] startNodes) {
+        BitSet ownerNodes = new BitSet();
+        for (int node: startNodes) {
+            if (simplifiedCallGraph.getNodeType(node) == SimplifiedCallGraphNode.NODE_TYPE_VIEW) {
+                ownerNodes.or(simplifiedCallGraph.traceBack(node, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY));
+            } else {
+                ownerNodes.set(node);
             }
+        }
+        BitSet functions = simplifiedCallGraph.traceForward(ownerNodes.stream().toArray(), SimplifiedCallGraphNode.NODE_TYPE_FUNCTION);
+        PackageFilter appCode = PackageFilter.appOnly(appInfo.getPackageName());
+        for (int node = functions.nextSetBit(0); node >= 0; node = functions.nextSetBit(node + 1)) {
+            if (!appCode.accepts(DexMethodScanner.getClassOfSignature(simplifiedCallGraph.getNodeValue(node)))) {
+                functions.clear(node);
+            }
+        }
+        return functions;
+    }
+
+    /**
+     * @return graph ids of the given nodes that are in the graph
+     */
+    public BitSet getNodeIds(Collection<SimplifiedCallGraphNode> nodes) {
+        BitSet nodeIds = new BitSet();
+        for (SimplifiedCallGraphNode node: nodes) {
+            int nodeId = simplifiedCallGraph.findNode(node);
+            if (nodeId >= 0) {
+                nodeIds.set(nodeId);
+            }
+        }
+        return nodeIds;
+    }
+
+    /**
+     * Rank droidbot scripts by the number of changed app functions they can run, see getReachableFunctions
+     * @param changedMethods function nodes of the changed methods
+     * @return reach of each script, the scripts reaching the most changed functions first
+     */
+    public List<ScriptReach> rankScripts(Collection<DroidbotScript> scripts, Collection<SimplifiedCallGraphNode> changedMethods) {
+        checkWholeGraph("Script ranking");
+        BitSet changedFunctions = getNodeIds(changedMethods);
+        List<ScriptReach> scriptReaches = new ArrayList<>(scripts.size());
+        for (DroidbotScript script: scripts) {
+            BitSet startNodes = script.findNodes(simplifiedCallGraph, appInfo.getPackageName());
+            BitSet reachableFunctions = reachableAppFunctions(startNodes.stream().toArray());
+            BitSet reachedChangedFunctions = (BitSet) reachableFunctions.clone();
+            reachedChangedFunctions.and(changedFunctions);
+            scriptReaches.add(new ScriptReach(script, startNodes.cardinality(), reachableFunctions, reachedChangedFunctions));
+        }
+        scriptReaches.sort(null);
+        return scriptReaches;
+    }
+
+    /**
+     * Compute the views, layouts and activities impacted by a whole change set with a single backward traversal
+     * @param changedMethods function nodes of the changed methods
+     * @return impacted nodes, each with the changed methods reaching it
+     */
+    public ChangeImpact getChangeImpact(Collection<SimplifiedCallGraphNode> changedMethods) {
+        expandCallers(changedMethods);
+        ChangeImpact changeImpact = ChangeImpact.compute(simplifiedCallGraph, changedMethods);
+        if (!changeImpact.getUnknownMethods().isEmpty()) {
+            logger.info(changeImpact.getUnknownMethods().size() + " changed methods are not in the call graph");
+        }
+        return changeImpact;
+    }
 
+    /**
+     * Write the simplified call graph as JSON nodes and edges, see GraphExporter
+     * @param path output file
+     */
+    public void dumpCallGraphJSON(String path) {
+        try (Writer writer = new BufferedWriter(new FileWriter(path), 1 << 16)) {
+            GraphExporter.writeJson(simplifiedCallGraph, writer);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the simplified call graph as a length-prefixed binary edge list, see GraphExporter
+     * @param path output file
+     */
+    public void dumpCallGraphBinary(String path) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+            GraphExporter.writeBinary(simplifiedCallGraph, out);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Replace the simplified call graph by one exported with dumpCallGraphJSON, instead of running analyse()
+     * @param path exported file
+     * @throws IOException when the file cannot be read
+     */
+    public void loadCallGraphJSON(String path) throws IOException {
+        try (Reader reader = new BufferedReader(new FileReader(path), 1 << 16)) {
+            replaceGraph(GraphExporter.readJson(reader));
+        }
+    }
+
+    /**
+     * Replace the simplified call graph by one exported with dumpCallGraphBinary, instead of running analyse()
+     * @param path exported file
+     * @throws IOException when the file cannot be read or is not a binary call graph
+     */
+    public void loadCallGraphBinary(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+            replaceGraph(GraphExporter.readBinary(in));
+        }
+    }
 }
@@ -0,0 +1,122 @@
+package androidgraph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * On-disk cache of analysis results, keyed by the SHA-256 of the APK and the analyser configuration.
+ * An entry holds the simplified call graph and the AppInfo tables in a binary file that is memory-mapped on load.
+ */
+public class AnalysisCache {
+    private static final int MAGIC = 0x43415447; // "CATG"
+    private static final int FORMAT_VERSION = 2;
+    private static final String ENTRY_EXTENSION = ".catcache";
+
+    private final File cacheDirectory;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public AnalysisCache(File _cacheDirectory) {
+        this.cacheDirectory = _cacheDirectory;
+    }
+
+    /**
+     * @param apkFile analysed APK
+     * @param configurationKey description of every analyser setting that changes the analysis result
+     * @return hex encoded SHA-256 over the APK content and the configuration
+     */
+    public String computeKey(File apkFile, String configurationKey) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream inputStream = new FileInputStream(apkFile)) {
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        digest.update(configurationKey.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder key = new StringBuilder();
+        for (byte b: digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    private File entryFile(String key) {
+        return new File(cacheDirectory, key + ENTRY_EXTENSION);
+    }
+
+    public boolean contains(String key) {
+        return entryFile(key).isFile();
+    }
+
+    /**
+     * Load a cache entry into an empty graph and AppInfo
+     * @return true if the entry exists and was loaded
+     */
+    public boolean load(String key, CompactCallGraph graph, AppInfo appInfo) {
+        File entry = entryFile(key);
+        if (!entry.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(entry.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                logger.info("Ignoring cache entry " + entry + " written in another format");
+                return false;
+            }
+            graph.readFrom(buffer);
+            appInfo.readFrom(buffer);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.info("Ignoring unreadable cache entry " + entry + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Write a cache entry, replacing any previous entry with the same key
+     */
+    public void store(String key, CompactCallGraph graph, AppInfo appInfo) throws IOException {
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + cacheDirectory);
+        }
+        File temporaryFile = File.createTempFile(key, ".tmp", cacheDirectory);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            graph.writeTo(out);
+            appInfo.writeTo(out);
+        }
+        Files.move(temporaryFile.toPath(), entryFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove a cache entry
+     * @return true if an entry was removed
+     */
+    public boolean invalidate(String key) throws IOException {
+        return Files.deleteIfExists(entryFile(key).toPath());
+    }
+}
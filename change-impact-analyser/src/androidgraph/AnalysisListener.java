@@ -0,0 +1,12 @@
+package androidgraph;
+
+/**
+ * Receives the metrics of an analysis as its phases finish, e.g. to feed a dashboard
+ */
+public interface AnalysisListener {
+    default void phaseFinished(AnalysisMetrics metrics, AnalysisMetrics.Phase phase) {
+    }
+
+    default void analysisFinished(AnalysisMetrics metrics) {
+    }
+}
@@ -0,0 +1,303 @@
+package androidgraph;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wall time, allocated bytes and peak heap of each phase of an analysis, and named counters.
+ * Phases are timed one after the other with startPhase(), counters may be incremented from any thread.
+ * Allocated bytes are estimated over all threads from the heap usage and the bytes freed by garbage collections
+ * during the phase. Peak heap is the sum of the peak usage of the heap memory pools during the phase.
+ */
+public class AnalysisMetrics {
+    private static final AtomicLong collectedBytes = new AtomicLong();
+    private static volatile boolean gcListenerRegistered;
+
+    private final String subject;
+    private final long startTime;
+    private final List<Phase> phases = new CopyOnWriteArrayList<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, String> attributes = new ConcurrentHashMap<>();
+    private final List<AnalysisListener> listeners = new CopyOnWriteArrayList<>();
+    private long totalWallMillis = -1;
+
+    /**
+     * @param _subject what is analysed, e.g. the APK path
+     */
+    public AnalysisMetrics(String _subject) {
+        this.subject = _subject;
+        this.startTime = System.currentTimeMillis();
+        registerGcListener();
+    }
+
+    private static synchronized void registerGcListener() {
+        if (gcListenerRegistered) {
+            return;
+        }
+        for (GarbageCollectorMXBean garbageCollector: ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(garbageCollector instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) garbageCollector).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                Map<String, MemoryUsage> before = info.getGcInfo().getMemoryUsageBeforeGc();
+                Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+                long freed = 0;
+                for (Map.Entry<String, MemoryUsage> pool: before.entrySet()) {
+                    MemoryUsage afterUsage = after.get(pool.getKey());
+                    if (afterUsage != null) {
+                        freed += pool.getValue().getUsed() - afterUsage.getUsed();
+                    }
+                }
+                collectedBytes.addAndGet(Math.max(0, freed));
+            }, null, null);
+        }
+        gcListenerRegistered = true;
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public void addListener(AnalysisListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Start timing a phase, which is recorded when end() is called on the returned timer, usually in a finally block
+     */
+    public PhaseTimer startPhase(String name) {
+        return new PhaseTimer(name);
+    }
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public void add(String counter, long delta) {
+        counters.computeIfAbsent(counter, key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Describe the analysis in the report, e.g. with the settings used
+     */
+    public void setAttribute(String name, String value) {
+        attributes.put(name, value);
+    }
+
+    /**
+     * @return all attributes, sorted by name
+     */
+    public Map<String, String> getAttributes() {
+        return new TreeMap<>(attributes);
+    }
+
+    /**
+     * @return value of the counter, 0 if it was never incremented
+     */
+    public long getCounter(String counter) {
+        LongAdder value = counters.get(counter);
+        return value == null ? 0 : value.sum();
+    }
+
+    /**
+     * @return all counters, sorted by name
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter: counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        return values;
+    }
+
+    /**
+     * @return finished phases, in the order they finished
+     */
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(new ArrayList<>(phases));
+    }
+
+    /**
+     * @return highest peak heap of the finished phases, 0 before the first phase ends
+     */
+    public long getPeakHeapBytes() {
+        long peakHeapBytes = 0;
+        for (Phase phase: phases) {
+            peakHeapBytes = Math.max(peakHeapBytes, phase.getPeakHeapBytes());
+        }
+        return peakHeapBytes;
+    }
+
+    /**
+     * @return wall time from the creation of the metrics to finish(), -1 before finish()
+     */
+    public long getTotalWallMillis() {
+        return totalWallMillis;
+    }
+
+    /**
+     * End the analysis and notify the listeners
+     */
+    public void finish() {
+        this.totalWallMillis = System.currentTimeMillis() - startTime;
+        for (AnalysisListener listener: listeners) {
+            listener.analysisFinished(this);
+        }
+    }
+
+    public void writeJson(Writer writer) {
+        try (JsonGenerator generator = Json.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.write("subject", subject);
+            generator.write("totalWallMillis", totalWallMillis);
+            generator.writeStartObject("attributes");
+            for (Map.Entry<String, String> attribute: getAttributes().entrySet()) {
+                generator.write(attribute.getKey(), attribute.getValue());
+            }
+            generator.writeEnd();
+            generator.writeStartArray("phases");
+            for (Phase phase: phases) {
+                generator.writeStartObject()
+                        .write("name", phase.getName())
+                        .write("wallMillis", phase.getWallMillis())
+                        .write("allocatedBytes", phase.getAllocatedBytes())
+                        .write("peakHeapBytes", phase.getPeakHeapBytes())
+                        .writeEnd();
+            }
+            generator.writeEnd();
+            generator.writeStartObject("counters");
+            for (Map.Entry<String, Long> counter: getCounters().entrySet()) {
+                generator.write(counter.getKey(), counter.getValue());
+            }
+            generator.writeEnd();
+            generator.writeEnd();
+        }
+    }
+
+    public void writeJson(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8))) {
+            writeJson(writer);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder(subject);
+        for (Phase phase: phases) {
+            stringBuilder.append("\n  ").append(phase);
+        }
+        for (Map.Entry<String, Long> counter: getCounters().entrySet()) {
+            stringBuilder.append("\n  ").append(counter.getKey()).append(": ").append(counter.getValue());
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Measurements of a finished phase
+     */
+    public static final class Phase {
+        private final String name;
+        private final long wallMillis;
+        private final long allocatedBytes;
+        private final long peakHeapBytes;
+
+        Phase(String _name, long _wallMillis, long _allocatedBytes, long _peakHeapBytes) {
+            this.name = _name;
+            this.wallMillis = _wallMillis;
+            this.allocatedBytes = _allocatedBytes;
+            this.peakHeapBytes = _peakHeapBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public long getPeakHeapBytes() {
+            return peakHeapBytes;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + wallMillis + " ms, " + allocatedBytes / (1 << 20) + " MB allocated, " +
+                    peakHeapBytes / (1 << 20) + " MB peak heap";
+        }
+    }
+
+    /**
+     * Running phase, recorded and reported to the listeners when ended
+     */
+    public final class PhaseTimer {
+        private final String name;
+        private final long phaseStartTime;
+        private final long startHeapUsed;
+        private final long startCollectedBytes;
+
+        private PhaseTimer(String _name) {
+            this.name = _name;
+            for (MemoryPoolMXBean memoryPool: ManagementFactory.getMemoryPoolMXBeans()) {
+                if (memoryPool.getType() == MemoryType.HEAP) {
+                    memoryPool.resetPeakUsage();
+                }
+            }
+            this.startCollectedBytes = collectedBytes.get();
+            this.startHeapUsed = heapUsed();
+            this.phaseStartTime = System.currentTimeMillis();
+        }
+
+        public void end() {
+            long wallMillis = System.currentTimeMillis() - phaseStartTime;
+            long allocatedBytes = Math.max(0, heapUsed() - startHeapUsed + collectedBytes.get() - startCollectedBytes);
+            long peakHeapBytes = 0;
+            for (MemoryPoolMXBean memoryPool: ManagementFactory.getMemoryPoolMXBeans()) {
+                if (memoryPool.getType() == MemoryType.HEAP) {
+                    peakHeapBytes += memoryPool.getPeakUsage().getUsed();
+                }
+            }
+            Phase phase = new Phase(name, wallMillis, allocatedBytes, peakHeapBytes);
+            phases.add(phase);
+            for (AnalysisListener listener: listeners) {
+                listener.phaseFinished(AnalysisMetrics.this, phase);
+            }
+        }
+    }
+}
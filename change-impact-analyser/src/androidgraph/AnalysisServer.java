@@ -0,0 +1,486 @@
+package androidgraph;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.G;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps analysed apps in memory and answers impact queries over HTTP on the loopback interface, so that a test
+ * orchestrator pays JVM startup and the analysis once per app instead of once per question.
+ * <p>
+ * Apps are analysed on first use, one at a time as Soot keeps its state in a global Scene, and reuse the analysis
+ * cache when one is given. The Soot state of each analysis is reset once the app is loaded. Loaded apps are evicted
+ * least recently used first when the estimated size of their graphs, indexes and app tables exceeds the heap budget.
+ * Queries on loaded apps only read the graph and run concurrently on the server threads.
+ * <p>
+ * Endpoints, all answering JSON with the request latency in latencyMicros and in the X-Latency-Micros header:
+ * <ul>
+ * <li>POST /load?apk=PATH: analyse the app, or load it from the cache</li>
+ * <li>GET /views?apk=PATH&amp;method=SIGNATURE: getRelatedViews of a method</li>
+ * <li>GET /activities?apk=PATH&amp;view=NAME: getRelatedActivities of a view</li>
+ * <li>POST /impact?apk=PATH with one method signature per line: getChangeImpact of the methods</li>
+ * <li>POST /ranked?apk=PATH&amp;target=views|activities&amp;k=N[&amp;depth=D] with one method signature or view per
+ * line: getRankedViews or getRankedActivities</li>
+ * <li>GET /status: loaded apps, memory and latency of each endpoint</li>
+ * </ul>
+ * Usage: AnalysisServer &lt;android platforms dir&gt; [--port N] [--cache DIR] [--heap-budget MB] [--threads N]
+ * [--index] [--condense]
+ */
+public class AnalysisServer {
+    private static final int DEFAULT_PORT = 8765;
+
+    private final String androidPlatformPath;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final LinkedHashMap<String, LoadedApp> loadedApps = new LinkedHashMap<>(16, 0.75f, true);
+    private final Object analysisLock = new Object();
+    private final Map<String, EndpointStats> endpointStats = new ConcurrentHashMap<>();
+    private String cacheDirectory;
+    private long heapBudgetBytes = Runtime.getRuntime().maxMemory() / 2;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private boolean buildIndex;
+    private boolean condenseGraph;
+    private HttpServer httpServer;
+    private ExecutorService executor;
+
+    public AnalysisServer(String _androidPlatformPath) {
+        this.androidPlatformPath = _androidPlatformPath;
+    }
+
+    /**
+     * @param _cacheDirectory analysis cache used to load apps, see APKAnalyser.setCacheDirectory
+     */
+    public void setCacheDirectory(String _cacheDirectory) {
+        this.cacheDirectory = _cacheDirectory;
+    }
+
+    /**
+     * @param _heapBudgetBytes estimated size of the loaded apps above which the least recently used are evicted,
+     *                         half of the maximum heap if not set
+     */
+    public void setHeapBudgetBytes(long _heapBudgetBytes) {
+        this.heapBudgetBytes = _heapBudgetBytes;
+    }
+
+    public void setThreadCount(int _threadCount) {
+        if (_threadCount < 1) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+        this.threadCount = _threadCount;
+    }
+
+    /**
+     * @param _buildIndex when true, build the reachability index of each app when it is loaded
+     */
+    public void setBuildIndex(boolean _buildIndex) {
+        this.buildIndex = _buildIndex;
+    }
+
+    /**
+     * @param _condenseGraph when true, condense the call graph of each app when it is loaded, see GraphCondenser
+     */
+    public void setCondenseGraph(boolean _condenseGraph) {
+        this.condenseGraph = _condenseGraph;
+    }
+
+    public void start(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(threadCount);
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/load", exchange -> handle(exchange, "load", this::load));
+        httpServer.createContext("/views", exchange -> handle(exchange, "views", this::relatedViews));
+        httpServer.createContext("/activities", exchange -> handle(exchange, "activities", this::relatedActivities));
+        httpServer.createContext("/impact", exchange -> handle(exchange, "impact", this::impact));
+        httpServer.createContext("/ranked", exchange -> handle(exchange, "ranked", this::ranked));
+        httpServer.createContext("/status", exchange -> handle(exchange, "status", this::status));
+        httpServer.start();
+        logger.info("Analysis server listening on " + httpServer.getAddress() + " with " + threadCount +
+                " threads and a heap budget of " + heapBudgetBytes / (1 << 20) + " MB");
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the analysed app, analysing it or loading it from the cache if it is not loaded
+     */
+    LoadedApp getApp(String apkPath) throws Exception {
+        String key = new File(apkPath).getCanonicalPath();
+        synchronized (loadedApps) {
+            LoadedApp loadedApp = loadedApps.get(key);
+            if (loadedApp != null) {
+                return loadedApp;
+            }
+        }
+        synchronized (analysisLock) {
+            synchronized (loadedApps) {
+                LoadedApp loadedApp = loadedApps.get(key);
+                if (loadedApp != null) {
+                    return loadedApp;
+                }
+            }
+            long startTime = System.currentTimeMillis();
+            APKAnalyser apkAnalyser = new APKAnalyser(key, androidPlatformPath);
+            if (cacheDirectory != null) {
+                apkAnalyser.setCacheDirectory(cacheDirectory);
+            }
+            apkAnalyser.analyse();
+            if (condenseGraph) {
+                apkAnalyser.condenseCallGraph();
+            }
+            // Queries only read the graph and the app tables, so the Scene is dropped rather than held outside the budget
+            G.reset();
+            long memoryBytes = apkAnalyser.getCallGraph().estimateMemoryBytes() + apkAnalyser.getAppInfo().estimateMemoryBytes();
+            if (buildIndex) {
+                memoryBytes += apkAnalyser.buildReachabilityIndex().getMemoryFootprintBytes();
+            }
+            LoadedApp loadedApp = new LoadedApp(key, apkAnalyser, memoryBytes, System.currentTimeMillis() - startTime);
+            synchronized (loadedApps) {
+                loadedApps.put(key, loadedApp);
+                evict(key);
+            }
+            logger.info("Loaded " + key + " in " + loadedApp.loadMillis + " ms, about " + memoryBytes / (1 << 20) + " MB");
+            return loadedApp;
+        }
+    }
+
+    /**
+     * Evict the least recently used apps, apart from the given one, while the loaded apps exceed the heap budget
+     */
+    private void evict(String keptKey) {
+        long totalBytes = 0;
+        for (LoadedApp loadedApp: loadedApps.values()) {
+            totalBytes += loadedApp.memoryBytes;
+        }
+        Iterator<LoadedApp> iterator = loadedApps.values().iterator();
+        while (totalBytes > heapBudgetBytes && iterator.hasNext()) {
+            LoadedApp loadedApp = iterator.next();
+            if (loadedApp.apkPath.equals(keptKey)) {
+                continue;
+            }
+            iterator.remove();
+            totalBytes -= loadedApp.memoryBytes;
+            logger.info("Evicted " + loadedApp.apkPath + " to stay within the heap budget");
+        }
+    }
+
+    private void handle(HttpExchange exchange, String endpoint, RequestHandler handler) throws IOException {
+        long startTime = System.nanoTime();
+        int status = 200;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+             JsonGenerator generator = Json.createGenerator(writer)) {
+            generator.writeStartObject();
+            try {
+                handler.handle(parseQuery(exchange.getRequestURI().getRawQuery()), exchange, generator);
+            } catch (RequestException e) {
+                status = e.status;
+                generator.write("error", e.getMessage());
+            } catch (Exception e) {
+                status = 500;
+                generator.write("error", String.valueOf(e));
+                logger.info("Request " + exchange.getRequestURI() + " failed: " + e);
+            }
+            long latencyMicros = (System.nanoTime() - startTime) / 1000;
+            generator.write("latencyMicros", latencyMicros);
+            generator.writeEnd();
+            endpointStats.computeIfAbsent(endpoint, key -> new EndpointStats()).record(latencyMicros);
+            exchange.getResponseHeaders().set("X-Latency-Micros", Long.toString(latencyMicros));
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            body.writeTo(out);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter: query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String requireParameter(Map<String, String> parameters, String name) throws RequestException {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new RequestException(400, "Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private LoadedApp requireApp(Map<String, String> parameters) throws Exception {
+        String apkPath = requireParameter(parameters, "apk");
+        if (!new File(apkPath).isFile()) {
+            throw new RequestException(404, "No APK at " + apkPath);
+        }
+        return getApp(apkPath);
+    }
+
+    private void load(Map<String, String> parameters, HttpExchange exchange, JsonGenerator generator) throws Exception {
+        LoadedApp loadedApp = requireApp(parameters);
+        CompactCallGraph graph = loadedApp.apkAnalyser.getCallGraph();
+        generator.write("apk", loadedApp.apkPath)
+                .write("nodes", graph.getNodeCount())
+                .write("edges", graph.getEdgeCount())
+                .write("memoryBytes", loadedApp.memoryBytes)
+                .write("loadMillis", loadedApp.loadMillis);
+    }
+
+    private void relatedViews(Map<String, String> parameters, HttpExchange exchange, JsonGenerator generator) throws Exception {
+        LoadedApp loadedApp = requireApp(parameters);
+        String method = requireParameter(parameters, "method");
+        Set<SimplifiedCallGraphNode> views = loadedApp.apkAnalyser.getRelatedViews(
+                new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, method));
+        if (views == null) {
+            throw new RequestException(404, "Method not in the call graph: " + method);
+        }
+        generator.write("method", method);
+        writeNodeValues(generator, "views", views);
+    }
+
+    private void relatedActivities(Map<String, String> parameters, HttpExchange exchange, JsonGenerator generator) throws Exception {
+        LoadedApp loadedApp = requireApp(parameters);
+        String view = requireParameter(parameters, "view");
+        Set<SimplifiedCallGraphNode> activities = loadedApp.apkAnalyser.getRelatedActivities(
+                new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_VIEW, view));
+        if (activities == null) {
+            throw new RequestException(404, "View not in the call graph: " + view);
+        }
+        generator.write("view", view);
+        writeNodeValues(generator, "activities", activities);
+    }
+
+    private static List<SimplifiedCallGraphNode> readNodes(HttpExchange exchange, int nodeType) throws IOException {
+        List<SimplifiedCallGraphNode> nodes = new ArrayList<>();
+        for (String line: new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                nodes.add(new SimplifiedCallGraphNode(nodeType, line));
+            }
+        }
+        return nodes;
+    }
+
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue) throws RequestException {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Parameter " + name + " is not a number: " + value);
+        }
+    }
+
+    private void impact(Map<String, String> parameters, HttpExchange exchange, JsonGenerator generator) throws Exception {
+        LoadedApp loadedApp = requireApp(parameters);
+        List<SimplifiedCallGraphNode> changedMethods = readNodes(exchange, SimplifiedCallGraphNode.NODE_TYPE_FUNCTION);
+        ChangeImpact changeImpact = loadedApp.apkAnalyser.getChangeImpact(changedMethods);
+        writeImpacted(generator, "views", changeImpact.getImpactedViews());
+        writeImpacted(generator, "layouts", changeImpact.getImpactedLayouts());
+        writeImpacted(generator, "activities", changeImpact.getImpactedActivities());
+        writeNodeValues(generator, "unknownMethods", changeImpact.getUnknownMethods());
+    }
+
+    private void ranked(Map<String, String> parameters, HttpExchange exchange, JsonGenerator generator) throws Exception {
+        LoadedApp loadedApp = requireApp(parameters);
+        String target = requireParameter(parameters, "target");
+        int maxResults = intParameter(parameters, "k", 10);
+        int maxDepth = intParameter(parameters, "depth", Integer.MAX_VALUE);
+        if (maxResults < 1 || maxDepth < 1) {
+            throw new RequestException(400, "k and depth must be at least 1");
+        }
+        List<RankedNode> rankedNodes;
+        switch (target) {
+            case "views":
+                rankedNodes = loadedApp.apkAnalyser.getRankedViews(
+                        readNodes(exchange, SimplifiedCallGraphNode.NODE_TYPE_FUNCTION), maxResults, maxDepth);
+                break;
+            case "activities":
+                rankedNodes = loadedApp.apkAnalyser.getRankedActivities(
+                        readNodes(exchange, SimplifiedCallGraphNode.NODE_TYPE_VIEW), maxResults, maxDepth);
+                break;
+            default:
+                throw new RequestException(400, "Unknown target " + target);
+        }
+        generator.writeStartArray(target);
+        for (RankedNode rankedNode: rankedNodes) {
+            generator.writeStartObject()
+                    .write("value", rankedNode.getNode().getNodeValue())
+                    .write("distance", rankedNode.getDistance())
+                    .write("reachingCount", rankedNode.getReachingCount())
+                    .writeEnd();
+        }
+        generator.writeEnd();
+    }
+
+    private void status(Map<String, String> parameters, HttpExchange exchange, JsonGenerator generator) {
+        long totalBytes = 0;
+        generator.writeStartArray("apps");
+        synchronized (loadedApps) {
+            for (LoadedApp loadedApp: loadedApps.values()) {
+                generator.writeStartObject()
+                        .write("apk", loadedApp.apkPath)
+                        .write("memoryBytes", loadedApp.memoryBytes)
+                        .write("loadMillis", loadedApp.loadMillis)
+                        .writeEnd();
+                totalBytes += loadedApp.memoryBytes;
+            }
+        }
+        generator.writeEnd();
+        Runtime runtime = Runtime.getRuntime();
+        generator.write("appMemoryBytes", totalBytes)
+                .write("heapBudgetBytes", heapBudgetBytes)
+                .write("heapUsedBytes", runtime.totalMemory() - runtime.freeMemory())
+                .write("heapMaxBytes", runtime.maxMemory());
+        generator.writeStartObject("endpoints");
+        for (Map.Entry<String, EndpointStats> entry: new TreeMap<>(endpointStats).entrySet()) {
+            EndpointStats stats = entry.getValue();
+            long count = stats.count.sum();
+            generator.writeStartObject(entry.getKey())
+                    .write("requests", count)
+                    .write("meanLatencyMicros", count == 0 ? 0 : stats.totalMicros.sum() / count)
+                    .write("maxLatencyMicros", stats.maxMicros.get())
+                    .writeEnd();
+        }
+        generator.writeEnd();
+    }
+
+    private static void writeNodeValues(JsonGenerator generator, String name, Collection<SimplifiedCallGraphNode> nodes) {
+        generator.writeStartArray(name);
+        for (SimplifiedCallGraphNode node: nodes) {
+            generator.write(node.getNodeValue());
+        }
+        generator.writeEnd();
+    }
+
+    private static void writeImpacted(JsonGenerator generator, String name, Map<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> impacted) {
+        generator.writeStartObject(name);
+        for (Map.Entry<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> entry: impacted.entrySet()) {
+            writeNodeValues(generator, entry.getKey().getNodeValue(), entry.getValue());
+        }
+        generator.writeEnd();
+    }
+
+    /**
+     * Answers one request by writing the fields of its JSON response
+     */
+    private interface RequestHandler {
+        void handle(Map<String, String> parameters, HttpExchange exchange, JsonGenerator generator) throws Exception;
+    }
+
+    /**
+     * Request that cannot be answered, reported with the given HTTP status
+     */
+    private static final class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        RequestException(int _status, String message) {
+            super(message);
+            this.status = _status;
+        }
+    }
+
+    static final class LoadedApp {
+        private final String apkPath;
+        private final APKAnalyser apkAnalyser;
+        private final long memoryBytes;
+        private final long loadMillis;
+
+        LoadedApp(String _apkPath, APKAnalyser _apkAnalyser, long _memoryBytes, long _loadMillis) {
+            this.apkPath = _apkPath;
+            this.apkAnalyser = _apkAnalyser;
+            this.memoryBytes = _memoryBytes;
+            this.loadMillis = _loadMillis;
+        }
+    }
+
+    private static final class EndpointStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+        void record(long latencyMicros) {
+            count.increment();
+            totalMicros.add(latencyMicros);
+            maxMicros.accumulate(latencyMicros);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: AnalysisServer <android platforms dir> [--port N] [--cache DIR] [--heap-budget MB] " +
+                    "[--threads N] [--index] [--condense]");
+            System.exit(2);
+        }
+        AnalysisServer analysisServer = new AnalysisServer(args[0]);
+        int port = DEFAULT_PORT;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--cache":
+                    analysisServer.setCacheDirectory(args[++i]);
+                    break;
+                case "--heap-budget":
+                    analysisServer.setHeapBudgetBytes(Long.parseLong(args[++i]) << 20);
+                    break;
+                case "--threads":
+                    analysisServer.setThreadCount(Integer.parseInt(args[++i]));
+                    break;
+                case "--index":
+                    analysisServer.setBuildIndex(true);
+                    break;
+                case "--condense":
+                    analysisServer.setCondenseGraph(true);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        analysisServer.start(port);
+    }
+}
@@ -0,0 +1,95 @@
+package androidgraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Analyses one APK in its own JVM, started by BatchAnalysis.
+ * Writes the binary call graph to {@code <outputDir>/<app>.graph}, the node and edge counts and the peak heap in MB
+ * to {@code <outputDir>/<app>.result}, the analysis metrics to {@code <outputDir>/<app>.metrics.json}, and with
+ * --record the FlowDroid call graph edges to {@code <outputDir>/<app>.callgraph.tsv}. Exits with status 0 on success and 1 on failure.
+ * <p>
+ * Usage: AnalysisWorker &lt;apk&gt; &lt;android platforms dir&gt; &lt;output dir&gt; [--cache DIR] [--record]
+ * [--mode CallGraphMode] [--callback-timeout SECONDS] [--include PACKAGES] [--exclude PACKAGES] [--low-memory]
+ * <p>
+ * Packages are comma separated, see PackageFilter.parsePackages.
+ */
+public class AnalysisWorker {
+    static final String GRAPH_EXTENSION = ".graph";
+    static final String RESULT_EXTENSION = ".result";
+    static final String RECORDING_EXTENSION = ".callgraph.tsv";
+    static final String METRICS_EXTENSION = ".metrics.json";
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: AnalysisWorker <apk> <android platforms dir> <output dir> [--cache DIR] [--record] " +
+                    "[--mode CallGraphMode] [--callback-timeout SECONDS] [--include PACKAGES] [--exclude PACKAGES] [--low-memory]");
+            System.exit(2);
+        }
+        File apkFile = new File(args[0]);
+        File outputDirectory = new File(args[2]);
+        String appName = getAppName(apkFile);
+        try {
+            APKAnalyser apkAnalyser = new APKAnalyser(args[0], args[1]);
+            apkAnalyser.setMetricsReportFile(new File(outputDirectory, appName + METRICS_EXTENSION).getPath());
+            String includedPackages = "";
+            String excludedPackages = "";
+            for (int i = 3; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--cache":
+                        apkAnalyser.setCacheDirectory(args[++i]);
+                        break;
+                    case "--record":
+                        apkAnalyser.setCallGraphRecordFile(new File(outputDirectory, appName + RECORDING_EXTENSION).getPath());
+                        break;
+                    case "--mode":
+                        apkAnalyser.setCallGraphMode(CallGraphMode.valueOf(args[++i]));
+                        break;
+                    case "--callback-timeout":
+                        apkAnalyser.setCallbackTimeoutSeconds(Integer.parseInt(args[++i]));
+                        break;
+                    case "--include":
+                        includedPackages = args[++i];
+                        break;
+                    case "--exclude":
+                        excludedPackages = args[++i];
+                        break;
+                    case "--low-memory":
+                        apkAnalyser.setLowMemory(true);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            apkAnalyser.setPackageFilter(new PackageFilter(PackageFilter.parsePackages(includedPackages),
+                    PackageFilter.parsePackages(excludedPackages)));
+            apkAnalyser.analyse();
+
+            CompactCallGraph graph = apkAnalyser.getCallGraph();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(outputDirectory, appName + GRAPH_EXTENSION)), 1 << 16))) {
+                GraphExporter.writeBinary(graph, out);
+            }
+            try (PrintWriter writer = new PrintWriter(new File(outputDirectory, appName + RESULT_EXTENSION), StandardCharsets.UTF_8)) {
+                writer.println(graph.getNodeCount() + "\t" + graph.getEdgeCount() + "\t" +
+                        apkAnalyser.getMetrics().getPeakHeapBytes() / (1 << 20));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return file name of the APK without the .apk extension, used to name the output files
+     */
+    static String getAppName(File apkFile) {
+        String fileName = apkFile.getName();
+        return fileName.endsWith(".apk") ? fileName.substring(0, fileName.length() - 4) : fileName;
+    }
+}
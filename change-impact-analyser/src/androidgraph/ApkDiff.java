@@ -0,0 +1,101 @@
+package androidgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Methods added, removed and modified between two versions of an APK, found by comparing method body hashes
+ */
+public class ApkDiff {
+    private final Set<String> addedMethods;
+    private final Set<String> removedMethods;
+    private final Set<String> modifiedMethods;
+
+    private ApkDiff() {
+        this.addedMethods = new HashSet<>();
+        this.removedMethods = new HashSet<>();
+        this.modifiedMethods = new HashSet<>();
+    }
+
+    public static ApkDiff compute(DexMethodScanner previousVersion, DexMethodScanner currentVersion) {
+        ApkDiff apkDiff = new ApkDiff();
+        Map<String, Long> previousHashes = previousVersion.hashMethodBodies();
+        Map<String, Long> currentHashes = currentVersion.hashMethodBodies();
+        for (Map.Entry<String, Long> currentHash: currentHashes.entrySet()) {
+            Long previousHash = previousHashes.get(currentHash.getKey());
+            if (previousHash == null) {
+                apkDiff.addedMethods.add(currentHash.getKey());
+            } else if (!previousHash.equals(currentHash.getValue())) {
+                apkDiff.modifiedMethods.add(currentHash.getKey());
+            }
+        }
+        for (String previousMethod: previousHashes.keySet()) {
+            if (!currentHashes.containsKey(previousMethod)) {
+                apkDiff.removedMethods.add(previousMethod);
+            }
+        }
+        return apkDiff;
+    }
+
+    public Set<String> getAddedMethods() {
+        return Collections.unmodifiableSet(addedMethods);
+    }
+
+    public Set<String> getRemovedMethods() {
+        return Collections.unmodifiableSet(removedMethods);
+    }
+
+    public Set<String> getModifiedMethods() {
+        return Collections.unmodifiableSet(modifiedMethods);
+    }
+
+    public boolean isRemoved(String signature) {
+        return removedMethods.contains(signature);
+    }
+
+    /**
+     * @return true if the body of the method was modified or removed, so that its outgoing calls have to be rebuilt
+     */
+    public boolean isRewritten(String signature) {
+        return modifiedMethods.contains(signature) || removedMethods.contains(signature);
+    }
+
+    /**
+     * @return declaring classes of all added, removed and modified methods
+     */
+    public Set<String> getChangedClasses() {
+        Set<String> changedClasses = new HashSet<>();
+        for (Set<String> methods: List.of(addedMethods, removedMethods, modifiedMethods)) {
+            for (String method: methods) {
+                changedClasses.add(DexMethodScanner.getClassOfSignature(method));
+            }
+        }
+        return changedClasses;
+    }
+
+    /**
+     * @return function nodes of the added and modified methods, ready for the impact queries on the new version
+     */
+    public List<SimplifiedCallGraphNode> getChangedMethodNodes() {
+        List<SimplifiedCallGraphNode> changedMethodNodes = new ArrayList<>();
+        for (Set<String> methods: List.of(modifiedMethods, addedMethods)) {
+            for (String method: methods) {
+                changedMethodNodes.add(new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, method));
+            }
+        }
+        return changedMethodNodes;
+    }
+
+    public int size() {
+        return addedMethods.size() + removedMethods.size() + modifiedMethods.size();
+    }
+
+    @Override
+    public String toString() {
+        return addedMethods.size() + " added, " + removedMethods.size() + " removed, " + modifiedMethods.size() + " modified methods";
+    }
+}
@@ -1,34 +1,60 @@
 package androidgraph;
 
+import soot.jimple.infoflow.android.resources.ARSCFileParser;
 import soot.jimple.infoflow.android.resources.controls.AndroidLayoutControl;
 import soot.util.HashMultiMap;
 import soot.util.MultiMap;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
+/**
+ * Classes, layouts and resource IDs of an analysed app.
+ * Resource tables are indexed by the package, type and entry bytes of the IDs and by a string to int map, layout views
+ * are sorted int arrays, and function signatures are stored without the class prefix they share, so that lookups
+ * do not box or allocate.
+ */
 public class AppInfo {
-    private final MultiMap<String, String> classes;
-    private final MultiMap<String, Integer> layoutViews;
-    private final Map<Integer, AndroidLayoutControl> views;
-    private final Map<Integer, String> resourceIDMapInt2Str;
-    private final Map<String, Integer> resourceIDMapStr2Int;
+    public static final int NO_ID = -1;
+    private static final int[] NO_VIEWS = new int[0];
+
+    // Object header and array header sizes of a 64 bit JVM with compressed oops
+    private static final long OBJECT_HEADER = 16;
+    private static final long ARRAY_HEADER = 16;
+    private static final long BOXED_INTEGER = OBJECT_HEADER;
+
+    private final Map<String, ClassFunctions> classes;
+    private final Map<String, int[]> layoutViews;
+    private final MultiMap<String, String> layoutInclusions;
+    private final ResourceArray<AndroidLayoutControl> views;
+    private final ResourceArray<String> resourceNames;
+    private final StringIntMap resourceIDs;
     private final String packageName;
     private final String appName;
 
     public AppInfo(String _appName, String _packageName) {
-        this.classes = new HashMultiMap<>();
-        this.layoutViews = new HashMultiMap<>();
-        this.views = new HashMap<>();
-        this.resourceIDMapInt2Str = new HashMap<>();
-        this.resourceIDMapStr2Int = new HashMap<>();
+        this.classes = new HashMap<>();
+        this.layoutViews = new HashMap<>();
+        this.layoutInclusions = new HashMultiMap<>();
+        this.views = new ResourceArray<>();
+        this.resourceNames = new ResourceArray<>();
+        this.resourceIDs = new StringIntMap(NO_ID);
         this.appName = _appName;
         this.packageName = _packageName;
     }
 
     public void addFunction(String className, String functionSignature) {
-        classes.put(className, functionSignature);
+        classes.computeIfAbsent(className, ClassFunctions::new).add(functionSignature);
     }
 
     public void addFunction(String functionSignature) {
@@ -41,29 +67,84 @@ public class AppInfo {
         StringBuilder _string = new StringBuilder();
         for (String key: classes.keySet()) {
             _string.append("class: ").append(key).append('\n');
-            for (String functionSignature: classes.get(key)) {
-                _string.append("    ").append(functionSignature).append('\n');
-            }
+            forEachClassFunction(key, functionSignature -> _string.append("    ").append(functionSignature).append('\n'));
         }
         return _string.toString();
     }
 
+    /**
+     * @return signatures of the functions of the class, rebuilt from the stored suffixes into a new set, empty for an
+     * unknown class. containsFunction and forEachClassFunction do not build the set
+     */
     public Set<String> getClassFunctions(String className) {
-        return classes.get(className);
+        ClassFunctions classFunctions = classes.get(className);
+        if (classFunctions == null) {
+            return Collections.emptySet();
+        }
+        Set<String> functionSignatures = new HashSet<>();
+        classFunctions.forEach(functionSignatures::add);
+        return functionSignatures;
+    }
+
+    /**
+     * @return true if the function was added to the class, without rebuilding its signatures
+     */
+    public boolean containsFunction(String className, String functionSignature) {
+        ClassFunctions classFunctions = classes.get(className);
+        return classFunctions != null && classFunctions.contains(functionSignature);
     }
 
-    public Set<Integer> getLayoutViews(String activity) {
-        return layoutViews.get(activity);
+    /**
+     * Pass the signature of each function of the class to the visitor, nothing for an unknown class
+     */
+    public void forEachClassFunction(String className, Consumer<String> visitor) {
+        ClassFunctions classFunctions = classes.get(className);
+        if (classFunctions != null) {
+            classFunctions.forEach(visitor);
+        }
+    }
+
+    /**
+     * @return sorted resource IDs of the views of the layout, empty if there are none. The array must not be modified
+     */
+    public int[] getLayoutViews(String layout) {
+        return layoutViews.getOrDefault(layout, NO_VIEWS);
     }
 
-    public void addLayoutView(String activity, Integer view) {
-        layoutViews.put(activity, view);
+    public void addLayoutView(String layout, int view) {
+        int[] layoutViewIDs = layoutViews.getOrDefault(layout, NO_VIEWS);
+        int position = Arrays.binarySearch(layoutViewIDs, view);
+        if (position >= 0) {
+            return;
+        }
+        position = -position - 1;
+        // Layouts hold a few dozen views at most, so the array is kept exactly sized
+        int[] extended = new int[layoutViewIDs.length + 1];
+        System.arraycopy(layoutViewIDs, 0, extended, 0, position);
+        extended[position] = view;
+        System.arraycopy(layoutViewIDs, position, extended, position + 1, layoutViewIDs.length - position);
+        layoutViews.put(layout, extended);
     }
 
     public Set<String> getLayouts() {
         return layoutViews.keySet();
     }
 
+    /**
+     * @param layout layout file containing an include element
+     * @param includedLayout layout file referenced by the include element
+     */
+    public void addLayoutInclusion(String layout, String includedLayout) {
+        layoutInclusions.put(layout, includedLayout);
+    }
+
+    /**
+     * @return layout files included by the layout, empty if there are none
+     */
+    public Set<String> getLayoutInclusions(String layout) {
+        return layoutInclusions.get(layout);
+    }
+
     public void addView(int id, AndroidLayoutControl androidLayoutControl) {
         this.views.put(id, androidLayoutControl);
     }
@@ -72,8 +153,8 @@ public class AppInfo {
         return views.get(id);
     }
 
-    public Map<Integer, AndroidLayoutControl> getViews() {
-        return this.views;
+    public int getViewCount() {
+        return views.size();
     }
 
     public Set<String> getClasses() {
@@ -88,24 +169,365 @@ public class AppInfo {
         return packageName;
     }
 
+    /**
+     * Write the class, layout, inclusion and resource tables in the binary format read by {@link #readFrom(ByteBuffer)}
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(classes.size());
+        for (Map.Entry<String, ClassFunctions> classFunctions: classes.entrySet()) {
+            BinaryIO.writeString(out, classFunctions.getKey());
+            out.writeInt(classFunctions.getValue().size());
+            try {
+                classFunctions.getValue().forEach(functionSignature -> {
+                    try {
+                        BinaryIO.writeString(out, functionSignature);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        out.writeInt(layoutViews.size());
+        for (Map.Entry<String, int[]> layout: layoutViews.entrySet()) {
+            BinaryIO.writeString(out, layout.getKey());
+            out.writeInt(layout.getValue().length);
+            for (int view: layout.getValue()) {
+                out.writeInt(view);
+            }
+        }
+        out.writeInt(layoutInclusions.keySet().size());
+        for (String layout: layoutInclusions.keySet()) {
+            BinaryIO.writeString(out, layout);
+            out.writeInt(layoutInclusions.get(layout).size());
+            for (String includedLayout: layoutInclusions.get(layout)) {
+                BinaryIO.writeString(out, includedLayout);
+            }
+        }
+        out.writeInt(resourceNames.size());
+        try {
+            resourceNames.forEach((id, name) -> {
+                try {
+                    out.writeInt(id);
+                    BinaryIO.writeString(out, name);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Load the tables written by {@link #writeTo(DataOutput)}. Layout controls are not part of the format
+     */
+    public void readFrom(ByteBuffer in) {
+        int classCount = in.getInt();
+        for (int i = 0; i < classCount; i++) {
+            String className = BinaryIO.readString(in);
+            int functionCount = in.getInt();
+            for (int j = 0; j < functionCount; j++) {
+                addFunction(className, BinaryIO.readString(in));
+            }
+        }
+        int layoutCount = in.getInt();
+        for (int i = 0; i < layoutCount; i++) {
+            String layout = BinaryIO.readString(in);
+            int viewCount = in.getInt();
+            for (int j = 0; j < viewCount; j++) {
+                addLayoutView(layout, in.getInt());
+            }
+        }
+        int includingLayoutCount = in.getInt();
+        for (int i = 0; i < includingLayoutCount; i++) {
+            String layout = BinaryIO.readString(in);
+            int includedLayoutCount = in.getInt();
+            for (int j = 0; j < includedLayoutCount; j++) {
+                addLayoutInclusion(layout, BinaryIO.readString(in));
+            }
+        }
+        int resourceCount = in.getInt();
+        for (int i = 0; i < resourceCount; i++) {
+            int id = in.getInt();
+            addResourceID(id, BinaryIO.readString(in));
+        }
+    }
+
+    /**
+     * @param strID resource name, kept as the single instance returned by getResourceIDStr for the ID
+     */
     public void addResourceID(int id, String strID) throws RuntimeException {
-        if (resourceIDMapInt2Str.containsKey(id) && !resourceIDMapInt2Str.get(id).equals(strID)) {
-            throw new RuntimeException("Parsing resource map fails: existing id with different values " + strID + " and " +
-                    resourceIDMapInt2Str.get(id));
+        String existing = resourceNames.get(id);
+        if (existing != null) {
+            if (!existing.equals(strID)) {
+                throw new RuntimeException("Parsing resource map fails: existing id with different values " + strID + " and " +
+                        existing);
+            }
+            return;
+        }
+        this.resourceNames.put(id, strID);
+        this.resourceIDs.put(strID, id);
+    }
+
+    /**
+     * Add the ID of every resource of a parsed resource table, named package:type/name like in aapt dumps
+     */
+    public void addResourceIDs(ARSCFileParser resources) {
+        for (ARSCFileParser.ResPackage resPackage: resources.getPackages()) {
+            for (ARSCFileParser.ResType resType: resPackage.getDeclaredTypes()) {
+                String prefix = resPackage.getPackageName() + ":" + resType.getTypeName() + "/";
+                for (ARSCFileParser.ResConfig resConfig: resType.getConfigurations()) {
+                    for (ARSCFileParser.AbstractResource resource: resConfig.getResources()) {
+                        if (resourceNames.get(resource.getResourceID()) == null) {
+                            addResourceID(resource.getResourceID(), prefix + resource.getResourceName());
+                        }
+                    }
+                }
+            }
         }
-        this.resourceIDMapInt2Str.put(id, strID);
-        this.resourceIDMapStr2Int.put(strID, id);
     }
 
     public void addResourceID(String strID, int id) {
         addResourceID(id, strID);
     }
 
+    /**
+     * @return ID of the resource name, NO_ID if it is not known
+     */
     public int getResourceIDInt(String strID) {
-        return this.resourceIDMapStr2Int.get(strID);
+        return this.resourceIDs.get(strID);
+    }
+
+    /**
+     * @return name of the resource ID, null if it is not known
+     */
+    public String getResourceIDStr(int id) {
+        return this.resourceNames.get(id);
+    }
+
+    public int getResourceCount() {
+        return resourceNames.size();
     }
 
-    public String getResourceIDStr (int id) {
-        return this.resourceIDMapInt2Str.get(id);
+    /**
+     * @return approximate heap size of the tables and the strings they hold, without the layout controls
+     */
+    public long estimateMemoryBytes() {
+        long bytes = resourceNames.estimateMemoryBytes() + resourceIDs.estimateMemoryBytes() + views.estimateMemoryBytes();
+        long[] nameBytes = new long[1];
+        resourceNames.forEach((id, name) -> nameBytes[0] += stringBytes(name));
+        bytes += nameBytes[0];
+        bytes += hashMapBytes(classes.size());
+        for (Map.Entry<String, ClassFunctions> classFunctions: classes.entrySet()) {
+            bytes += stringBytes(classFunctions.getKey()) + classFunctions.getValue().estimateMemoryBytes();
+        }
+        bytes += hashMapBytes(layoutViews.size());
+        for (Map.Entry<String, int[]> layout: layoutViews.entrySet()) {
+            bytes += stringBytes(layout.getKey()) + ARRAY_HEADER + 4L * layout.getValue().length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return approximate heap size the same tables take in boxed maps and sets of full signatures, i.e. in
+     * HashMaps from Integer to String and back, a HashMultiMap from layout to Integer and one from class to signature
+     */
+    public long estimateBoxedMemoryBytes() {
+        long bytes = 2 * hashMapBytes(resourceNames.size()) + 2 * (long) resourceNames.size() * BOXED_INTEGER;
+        long[] nameBytes = new long[1];
+        resourceNames.forEach((id, name) -> nameBytes[0] += stringBytes(name));
+        bytes += nameBytes[0];
+        bytes += hashMapBytes(views.size()) + (long) views.size() * BOXED_INTEGER;
+        bytes += hashMapBytes(classes.size());
+        long[] signatureBytes = new long[1];
+        for (Map.Entry<String, ClassFunctions> classFunctions: classes.entrySet()) {
+            bytes += stringBytes(classFunctions.getKey()) + OBJECT_HEADER + hashMapBytes(classFunctions.getValue().size());
+            classFunctions.getValue().forEach(functionSignature -> signatureBytes[0] += stringBytes(functionSignature));
+        }
+        bytes += signatureBytes[0];
+        bytes += hashMapBytes(layoutViews.size());
+        for (Map.Entry<String, int[]> layout: layoutViews.entrySet()) {
+            bytes += stringBytes(layout.getKey()) + OBJECT_HEADER + hashMapBytes(layout.getValue().length)
+                    + (long) layout.getValue().length * BOXED_INTEGER;
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String value) {
+        return OBJECT_HEADER + 8 + ARRAY_HEADER + value.length();
+    }
+
+    private static long hashMapBytes(int size) {
+        // Map object, a 32 byte node per entry and a table at the default load factor
+        return 48 + ARRAY_HEADER + 32L * size + 4L * Math.max(16, Integer.highestOneBit(Math.max(1, size * 4 / 3)) << 1);
+    }
+
+    /**
+     * Function signatures of one class. Soot signatures all start with "<className: ", so only the rest of each
+     * signature is kept, as UTF-8 in one byte block per class; other signatures, e.g. method declarations of unknown
+     * classes, are kept whole. An open-addressing index of the suffix hashes finds a signature without decoding or
+     * copying the stored suffixes
+     */
+    private static final class ClassFunctions {
+        private final String prefix;
+        private byte[] block = new byte[0];
+        private int[] ends = new int[0];
+        private int[] hashes = new int[0];
+        // Position + 1 of the suffixes by hash, 0 for a free slot
+        private int[] slots = new int[0];
+        private int count;
+        private Set<String> otherSignatures;
+
+        ClassFunctions(String className) {
+            this.prefix = "<" + className + ": ";
+        }
+
+        private boolean hasPrefix(String functionSignature) {
+            return functionSignature.startsWith(prefix) && functionSignature.endsWith(">");
+        }
+
+        /**
+         * @return hash of the chars of the signature after the prefix, without the closing bracket
+         */
+        private int suffixHash(String functionSignature) {
+            int hash = 0;
+            for (int i = prefix.length(); i < functionSignature.length() - 1; i++) {
+                hash = 31 * hash + functionSignature.charAt(i);
+            }
+            return hash;
+        }
+
+        private static int slot(int hash, int mask) {
+            hash *= 0x9e3779b9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        /**
+         * @return position of the stored suffix of the signature, -1 if it is not stored
+         */
+        private int find(String functionSignature, int hash) {
+            if (slots.length == 0) {
+                return -1;
+            }
+            int mask = slots.length - 1;
+            for (int slot = slot(hash, mask); slots[slot] != 0; slot = (slot + 1) & mask) {
+                int position = slots[slot] - 1;
+                if (hashes[position] == hash && suffixEquals(position, functionSignature)) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return true if the stored suffix decodes to the chars of the signature after the prefix
+         */
+        private boolean suffixEquals(int position, String functionSignature) {
+            int charIndex = prefix.length();
+            int charEnd = functionSignature.length() - 1;
+            int i = position == 0 ? 0 : ends[position - 1];
+            while (i < ends[position]) {
+                int first = block[i] & 0xff;
+                int codePoint;
+                if (first < 0x80) {
+                    codePoint = first;
+                    i++;
+                } else if (first < 0xe0) {
+                    codePoint = (first & 0x1f) << 6 | (block[i + 1] & 0x3f);
+                    i += 2;
+                } else if (first < 0xf0) {
+                    codePoint = (first & 0x0f) << 12 | (block[i + 1] & 0x3f) << 6 | (block[i + 2] & 0x3f);
+                    i += 3;
+                } else {
+                    codePoint = (first & 0x07) << 18 | (block[i + 1] & 0x3f) << 12 | (block[i + 2] & 0x3f) << 6
+                            | (block[i + 3] & 0x3f);
+                    i += 4;
+                }
+                if (charIndex >= charEnd || functionSignature.codePointAt(charIndex) != codePoint) {
+                    return false;
+                }
+                charIndex += Character.charCount(codePoint);
+            }
+            return charIndex == charEnd;
+        }
+
+        boolean contains(String functionSignature) {
+            if (!hasPrefix(functionSignature)) {
+                return otherSignatures != null && otherSignatures.contains(functionSignature);
+            }
+            return find(functionSignature, suffixHash(functionSignature)) >= 0;
+        }
+
+        void add(String functionSignature) {
+            if (!hasPrefix(functionSignature)) {
+                if (otherSignatures == null) {
+                    otherSignatures = new HashSet<>();
+                }
+                otherSignatures.add(functionSignature);
+                return;
+            }
+            int hash = suffixHash(functionSignature);
+            if (find(functionSignature, hash) >= 0) {
+                return;
+            }
+            byte[] suffix = functionSignature.substring(prefix.length(), functionSignature.length() - 1)
+                    .getBytes(StandardCharsets.UTF_8);
+            int blockLength = count == 0 ? 0 : ends[count - 1];
+            if (blockLength + suffix.length > block.length) {
+                block = Arrays.copyOf(block, Math.max(blockLength + suffix.length, block.length * 3 / 2));
+            }
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, Math.max(4, count * 3 / 2));
+                hashes = Arrays.copyOf(hashes, ends.length);
+            }
+            System.arraycopy(suffix, 0, block, blockLength, suffix.length);
+            ends[count] = blockLength + suffix.length;
+            hashes[count++] = hash;
+            if (count * 4 > slots.length * 3) {
+                slots = new int[Math.max(8, slots.length * 2)];
+                for (int position = 0; position < count; position++) {
+                    index(position);
+                }
+            } else {
+                index(count - 1);
+            }
+        }
+
+        private void index(int position) {
+            int mask = slots.length - 1;
+            int slot = slot(hashes[position], mask);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = position + 1;
+        }
+
+        int size() {
+            return count + (otherSignatures == null ? 0 : otherSignatures.size());
+        }
+
+        void forEach(Consumer<String> visitor) {
+            for (int i = 0; i < count; i++) {
+                int start = i == 0 ? 0 : ends[i - 1];
+                visitor.accept(prefix + new String(block, start, ends[i] - start, StandardCharsets.UTF_8) + ">");
+            }
+            if (otherSignatures != null) {
+                otherSignatures.forEach(visitor);
+            }
+        }
+
+        long estimateMemoryBytes() {
+            long bytes = OBJECT_HEADER + 24 + stringBytes(prefix) + 4 * ARRAY_HEADER + block.length + 8L * ends.length
+                    + 4L * slots.length;
+            if (otherSignatures != null) {
+                bytes += OBJECT_HEADER + hashMapBytes(otherSignatures.size());
+                for (String functionSignature: otherSignatures) {
+                    bytes += stringBytes(functionSignature);
+                }
+            }
+            return bytes;
+        }
     }
 }
@@ -0,0 +1,266 @@
+package androidgraph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analyses a set of APKs, each in its own worker JVM, as Soot keeps its state in a global Scene.
+ * At most the given number of workers run at the same time, each with its own heap limit and timeout. Each worker
+ * writes its outputs next to a log of its console output, and one line per APK is added to summary.tsv in the output
+ * directory as soon as its worker ends.
+ * <p>
+ * Usage: BatchAnalysis &lt;apk dir or manifest&gt; &lt;android platforms dir&gt; &lt;output dir&gt;
+ * [--workers N] [--heap SIZE] [--timeout MINUTES] [--cache DIR] [--record]
+ * [--mode CallGraphMode] [--callback-timeout SECONDS] [--include PACKAGES] [--exclude PACKAGES] [--low-memory]
+ * <p>
+ * A directory is searched recursively for .apk files. A manifest lists one APK path per line, relative to the
+ * manifest, and ignores empty lines and lines starting with #. With --record, the workers also write the FlowDroid
+ * call graph of each APK for the edge scan benchmark. The call graph mode and package options are passed to the
+ * workers, see AnalysisWorker, so that running the batch once per mode compares their graph sizes and times.
+ * The summary reports the peak heap of each analysis, to choose the worker heap, e.g. with and without --low-memory.
+ */
+public class BatchAnalysis {
+    private static final String SUMMARY_FILE = "summary.tsv";
+    private static final String LOG_EXTENSION = ".log";
+
+    private final List<File> apkFiles;
+    private final String androidPlatformPath;
+    private final File outputDirectory;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+    private String workerHeap = "4g";
+    private long timeoutMinutes = 30;
+    private String cacheDirectory;
+    private boolean recordCallGraphs;
+    private final List<String> analysisOptions = new ArrayList<>();
+
+    public BatchAnalysis(List<File> _apkFiles, String _androidPlatformPath, File _outputDirectory) {
+        this.apkFiles = _apkFiles;
+        this.androidPlatformPath = _androidPlatformPath;
+        this.outputDirectory = _outputDirectory;
+    }
+
+    public void setWorkerCount(int _workerCount) {
+        if (_workerCount < 1) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+        this.workerCount = _workerCount;
+    }
+
+    /**
+     * @param _workerHeap maximum heap of each worker JVM, in the -Xmx format, e.g. 4g
+     */
+    public void setWorkerHeap(String _workerHeap) {
+        this.workerHeap = _workerHeap;
+    }
+
+    public void setTimeoutMinutes(long _timeoutMinutes) {
+        this.timeoutMinutes = _timeoutMinutes;
+    }
+
+    /**
+     * @param _cacheDirectory analysis cache shared by the workers, see APKAnalyser.setCacheDirectory
+     */
+    public void setCacheDirectory(String _cacheDirectory) {
+        this.cacheDirectory = _cacheDirectory;
+    }
+
+    /**
+     * @param _recordCallGraphs when true, each worker records the FlowDroid call graph edges, see CallGraphRecording
+     */
+    public void setRecordCallGraphs(boolean _recordCallGraphs) {
+        this.recordCallGraphs = _recordCallGraphs;
+    }
+
+    /**
+     * Pass an analysis option to every worker
+     * @param name option of AnalysisWorker, e.g. --mode
+     */
+    public void addAnalysisOption(String name, String value) {
+        analysisOptions.add(name);
+        analysisOptions.add(value);
+    }
+
+    /**
+     * Pass an analysis flag without value to every worker
+     * @param name option of AnalysisWorker, e.g. --low-memory
+     */
+    public void addAnalysisOption(String name) {
+        analysisOptions.add(name);
+    }
+
+    /**
+     * @param source directory searched recursively for APKs, or a manifest file listing them
+     * @return APK files, sorted by path for a directory and in manifest order for a manifest
+     */
+    public static List<File> findApkFiles(File source) throws IOException {
+        List<File> apkFiles = new ArrayList<>();
+        if (source.isDirectory()) {
+            collectApkFiles(source, apkFiles);
+            apkFiles.sort(null);
+            return apkFiles;
+        }
+        for (String line: Files.readAllLines(source.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            File apkFile = new File(line);
+            apkFiles.add(apkFile.isAbsolute() ? apkFile : new File(source.getAbsoluteFile().getParentFile(), line));
+        }
+        return apkFiles;
+    }
+
+    private static void collectApkFiles(File directory, List<File> apkFiles) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file: files) {
+            if (file.isDirectory()) {
+                collectApkFiles(file, apkFiles);
+            } else if (file.getName().endsWith(".apk")) {
+                apkFiles.add(file);
+            }
+        }
+    }
+
+    /**
+     * Analyse all APKs and wait for the workers to end
+     * @return number of APKs that could not be analysed
+     */
+    public int run() throws IOException, InterruptedException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create output directory " + outputDirectory);
+        }
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        int failures = 0;
+        try (PrintWriter summary = new PrintWriter(new FileWriter(new File(outputDirectory, SUMMARY_FILE), StandardCharsets.UTF_8))) {
+            summary.println("app\tstatus\tseconds\tnodes\tedges\tpeakHeapMB");
+            summary.flush();
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (File apkFile: apkFiles) {
+                results.add(executor.submit(() -> analyseInWorker(apkFile, summary)));
+            }
+            for (Future<Boolean> result: results) {
+                try {
+                    if (!result.get()) {
+                        failures++;
+                    }
+                } catch (ExecutionException e) {
+                    logger.info("Worker failed: " + e.getCause());
+                    failures++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.info("Analysed " + apkFiles.size() + " APKs on " + workerCount + " workers in " +
+                (System.currentTimeMillis() - startTime) / 1000 + " s, " + failures + " failed");
+        return failures;
+    }
+
+    private boolean analyseInWorker(File apkFile, PrintWriter summary) throws IOException, InterruptedException {
+        String appName = AnalysisWorker.getAppName(apkFile);
+        List<String> command = new ArrayList<>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Xmx" + workerHeap,
+                "-cp", System.getProperty("java.class.path"),
+                AnalysisWorker.class.getName(),
+                apkFile.getPath(), androidPlatformPath, outputDirectory.getPath()));
+        if (cacheDirectory != null) {
+            command.add("--cache");
+            command.add(cacheDirectory);
+        }
+        if (recordCallGraphs) {
+            command.add("--record");
+        }
+        command.addAll(analysisOptions);
+        File resultFile = new File(outputDirectory, appName + AnalysisWorker.RESULT_EXTENSION);
+        Files.deleteIfExists(resultFile.toPath());
+
+        long startTime = System.currentTimeMillis();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(outputDirectory, appName + LOG_EXTENSION))
+                .start();
+        String status;
+        if (!process.waitFor(timeoutMinutes, TimeUnit.MINUTES)) {
+            process.destroyForcibly().waitFor();
+            status = "TIMEOUT";
+        } else if (process.exitValue() != 0) {
+            status = "FAILED(" + process.exitValue() + ")";
+        } else {
+            status = "OK";
+        }
+        long seconds = (System.currentTimeMillis() - startTime) / 1000;
+
+        String counts = "\t\t";
+        if (status.equals("OK") && resultFile.isFile()) {
+            counts = Files.readAllLines(resultFile.toPath(), StandardCharsets.UTF_8).get(0);
+        }
+        synchronized (summary) {
+            summary.println(appName + "\t" + status + "\t" + seconds + "\t" + counts);
+            summary.flush();
+        }
+        logger.info(appName + ": " + status + " after " + seconds + " s");
+        return status.equals("OK");
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: BatchAnalysis <apk dir or manifest> <android platforms dir> <output dir> " +
+                    "[--workers N] [--heap SIZE] [--timeout MINUTES] [--cache DIR] [--record] " +
+                    "[--mode CallGraphMode] [--callback-timeout SECONDS] [--include PACKAGES] [--exclude PACKAGES] [--low-memory]");
+            System.exit(2);
+        }
+        BatchAnalysis batchAnalysis = new BatchAnalysis(findApkFiles(new File(args[0])), args[1], new File(args[2]));
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers":
+                    batchAnalysis.setWorkerCount(Integer.parseInt(args[++i]));
+                    break;
+                case "--heap":
+                    batchAnalysis.setWorkerHeap(args[++i]);
+                    break;
+                case "--timeout":
+                    batchAnalysis.setTimeoutMinutes(Long.parseLong(args[++i]));
+                    break;
+                case "--cache":
+                    batchAnalysis.setCacheDirectory(args[++i]);
+                    break;
+                case "--record":
+                    batchAnalysis.setRecordCallGraphs(true);
+                    break;
+                case "--mode":
+                case "--callback-timeout":
+                case "--include":
+                case "--exclude":
+                    batchAnalysis.addAnalysisOption(args[i], args[++i]);
+                    break;
+                case "--low-memory":
+                    batchAnalysis.addAnalysisOption(args[i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        System.exit(batchAnalysis.run() == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,271 @@
+package androidgraph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.SootMethod;
+import soot.Value;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Turns the edges of the FlowDroid call graph into simplified call graph edges on a fork-join pool.
+ * Each task scans a contiguous range of edges into its own PartialGraph and the partial graphs are returned in edge
+ * order, so merging them gives the same node ids and edges as a scan on a single thread.
+ */
+final class CallGraphEdgeScanner {
+    private static final int MIN_EDGES_PER_TASK = 1024;
+
+    private final AppInfo appInfo;
+    private final SootMethodTable methodTable;
+    private final PackageFilter packageFilter;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * @param _appInfo resource IDs of the app, only read while scanning
+     * @param _methodTable signatures of the Scene methods, only read while scanning
+     * @param _packageFilter classes whose calls and resource lookups are kept
+     */
+    CallGraphEdgeScanner(AppInfo _appInfo, SootMethodTable _methodTable, PackageFilter _packageFilter) {
+        this.appInfo = _appInfo;
+        this.methodTable = _methodTable;
+        this.packageFilter = _packageFilter;
+    }
+
+    /**
+     * @param edges call graph edges in the order of the sequential scan
+     * @param parallelism number of worker threads, 1 scans on the calling thread
+     * @return partial graphs in edge order
+     */
+    List<PartialGraph> scan(List<Edge> edges, int parallelism) {
+        if (parallelism <= 1) {
+            PartialGraph partialGraph = new PartialGraph();
+            scanRange(edges, 0, edges.size(), partialGraph);
+            return List.of(partialGraph);
+        }
+        int threshold = Math.max(MIN_EDGES_PER_TASK, edges.size() / (parallelism * 4));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new ScanTask(edges, 0, edges.size(), threshold));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Add the edges of the partial graphs to the graph, in order
+     */
+    void mergeInto(List<PartialGraph> partialGraphs, CompactCallGraph graph) {
+        for (PartialGraph partialGraph: partialGraphs) {
+            for (int i = 0; i < partialGraph.size; i++) {
+                int srcNode = partialGraph.srcValues[i] == null
+                        ? methodTable.internNode(partialGraph.srcMethods[i], graph)
+                        : graph.internNode(partialGraph.srcTypes[i], partialGraph.srcValues[i]);
+                int destNode = partialGraph.destValues[i] == null
+                        ? methodTable.internNode(partialGraph.destMethods[i], graph)
+                        : graph.internNode(partialGraph.destTypes[i], partialGraph.destValues[i]);
+                graph.addEdge(destNode, srcNode);
+            }
+        }
+    }
+
+    /**
+     * Add the resource lookups that did not give an edge to the counters of the metrics
+     */
+    static void countSkippedLookups(List<PartialGraph> partialGraphs, AnalysisMetrics metrics) {
+        for (PartialGraph partialGraph: partialGraphs) {
+            metrics.add("unresolvedResourceIds", partialGraph.unresolvedResourceIDs);
+            metrics.add("skippedFindViewByIdSites", partialGraph.skippedFindViewByIdSites);
+            metrics.add("skippedSetContentViewSites", partialGraph.skippedSetContentViewSites);
+            metrics.add("excludedCalls", partialGraph.excludedCalls);
+        }
+    }
+
+    /**
+     * @return true if both lists hold the same edges in the same order, however they are split
+     */
+    static boolean sameEdges(List<PartialGraph> partialGraphs, List<PartialGraph> otherPartialGraphs) {
+        PartialGraph edges = PartialGraph.concat(partialGraphs);
+        PartialGraph otherEdges = PartialGraph.concat(otherPartialGraphs);
+        return edges.size == otherEdges.size
+                && Arrays.equals(edges.srcTypes, 0, edges.size, otherEdges.srcTypes, 0, otherEdges.size)
+                && Arrays.equals(edges.destTypes, 0, edges.size, otherEdges.destTypes, 0, otherEdges.size)
+                && Arrays.equals(edges.srcMethods, 0, edges.size, otherEdges.srcMethods, 0, otherEdges.size)
+                && Arrays.equals(edges.destMethods, 0, edges.size, otherEdges.destMethods, 0, otherEdges.size)
+                && Arrays.equals(edges.srcValues, 0, edges.size, otherEdges.srcValues, 0, otherEdges.size)
+                && Arrays.equals(edges.destValues, 0, edges.size, otherEdges.destValues, 0, otherEdges.size);
+    }
+
+    private void scanRange(List<Edge> edges, int from, int to, PartialGraph partialGraph) {
+        for (int i = from; i < to; i++) {
+            scanEdge(edges.get(i), partialGraph);
+        }
+    }
+
+    /**
+     * Function call to function call, and activity class to view or layout when the call is a findViewById or
+     * setContentView with a known resource id. Calls are kept if the package filter accepts the classes of both
+     * methods, resource lookups if it accepts the class of the caller
+     */
+    private void scanEdge(Edge edge, PartialGraph partialGraph) {
+        SootMethod smSrc = edge.src();
+        SootMethod smDest = edge.tgt();
+        boolean srcAccepted = true;
+        boolean destAccepted = true;
+        if (!packageFilter.acceptsAll()) {
+            srcAccepted = packageFilter.accepts(smSrc.getDeclaringClass().getName());
+            destAccepted = packageFilter.accepts(smDest.getDeclaringClass().getName());
+        }
+        if (!srcAccepted || !destAccepted) {
+            partialGraph.excludedCalls++;
+        } else if (methodTable.contains(smSrc.getNumber()) && methodTable.contains(smDest.getNumber())) {
+            partialGraph.addCall(smDest.getNumber(), smSrc.getNumber());
+        } else {
+            partialGraph.add(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, smDest.toString(),
+                    SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, smSrc.toString());
+        }
+        if (!srcAccepted) {
+            return;
+        }
+
+        Stmt srcStmt = edge.srcStmt();
+        if (srcStmt == null || !srcStmt.containsInvokeExpr()) {
+            return;
+        }
+        InvokeExpr invokeExpr = srcStmt.getInvokeExpr();
+        if (invokeExpr == null) {
+            return;
+        }
+        // The method reference is not resolved, as resolving can modify the Scene
+        String methodName = invokeExpr.getMethodRef().getName();
+        int resourceType;
+        if (methodName.equals("findViewById")) {
+            resourceType = SimplifiedCallGraphNode.NODE_TYPE_VIEW;
+        } else if (methodName.equals("setContentView")) {
+            resourceType = SimplifiedCallGraphNode.NODE_TYPE_LAYOUT;
+        } else {
+            return;
+        }
+        List<Value> values = invokeExpr.getArgs();
+        try {
+            int resourceID = Integer.parseInt(values.get(0).toString());
+            String resourceName = appInfo.getResourceIDStr(resourceID);
+            if (resourceName != null) {
+                partialGraph.add(resourceType, resourceName,
+                        SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, smSrc.getDeclaringClass().getName());
+            } else {
+                partialGraph.unresolvedResourceIDs++;
+                logger.info("resource id " + resourceID + " not found in resources");
+            }
+        } catch (Exception e) {
+            if (resourceType == SimplifiedCallGraphNode.NODE_TYPE_VIEW) {
+                partialGraph.skippedFindViewByIdSites++;
+            } else {
+                partialGraph.skippedSetContentViewSites++;
+            }
+            logger.info("Ignoring a activity-view relation with unknown view id " + values.get(0).toString() + " in " + srcStmt.toString());
+        }
+    }
+
+    /**
+     * Edges found by one task, in the order they were found. A node is either a registered method, given by its
+     * number with a null value, or a node type and value pair
+     */
+    static class PartialGraph {
+        private int size;
+        private byte[] destTypes = new byte[64];
+        private int[] destMethods = new int[64];
+        private String[] destValues = new String[64];
+        private byte[] srcTypes = new byte[64];
+        private int[] srcMethods = new int[64];
+        private String[] srcValues = new String[64];
+        private int unresolvedResourceIDs;
+        private int skippedFindViewByIdSites;
+        private int skippedSetContentViewSites;
+        private int excludedCalls;
+
+        void addCall(int calleeNumber, int callerNumber) {
+            append(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, calleeNumber, null,
+                    SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, callerNumber, null);
+        }
+
+        void add(int destType, String destValue, int srcType, String srcValue) {
+            append(destType, 0, destValue, srcType, 0, srcValue);
+        }
+
+        private void append(int destType, int destMethod, String destValue, int srcType, int srcMethod, String srcValue) {
+            if (size == destTypes.length) {
+                int capacity = size * 2;
+                destTypes = Arrays.copyOf(destTypes, capacity);
+                destMethods = Arrays.copyOf(destMethods, capacity);
+                destValues = Arrays.copyOf(destValues, capacity);
+                srcTypes = Arrays.copyOf(srcTypes, capacity);
+                srcMethods = Arrays.copyOf(srcMethods, capacity);
+                srcValues = Arrays.copyOf(srcValues, capacity);
+            }
+            destTypes[size] = (byte) destType;
+            destMethods[size] = destMethod;
+            destValues[size] = destValue;
+            srcTypes[size] = (byte) srcType;
+            srcMethods[size] = srcMethod;
+            srcValues[size] = srcValue;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private static PartialGraph concat(List<PartialGraph> partialGraphs) {
+            PartialGraph concatenated = new PartialGraph();
+            for (PartialGraph partialGraph: partialGraphs) {
+                for (int i = 0; i < partialGraph.size; i++) {
+                    concatenated.append(partialGraph.destTypes[i], partialGraph.destMethods[i], partialGraph.destValues[i],
+                            partialGraph.srcTypes[i], partialGraph.srcMethods[i], partialGraph.srcValues[i]);
+                }
+            }
+            return concatenated;
+        }
+    }
+
+    private class ScanTask extends RecursiveTask<List<PartialGraph>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Edge> edges;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        ScanTask(List<Edge> _edges, int _from, int _to, int _threshold) {
+            this.edges = _edges;
+            this.from = _from;
+            this.to = _to;
+            this.threshold = _threshold;
+        }
+
+        @Override
+        protected List<PartialGraph> compute() {
+            if (to - from <= threshold) {
+                PartialGraph partialGraph = new PartialGraph();
+                scanRange(edges, from, to, partialGraph);
+                List<PartialGraph> partialGraphs = new ArrayList<>();
+                partialGraphs.add(partialGraph);
+                return partialGraphs;
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(edges, from, middle, threshold);
+            ScanTask right = new ScanTask(edges, middle, to, threshold);
+            left.fork();
+            List<PartialGraph> rightPartialGraphs = right.compute();
+            List<PartialGraph> partialGraphs = left.join();
+            partialGraphs.addAll(rightPartialGraphs);
+            return partialGraphs;
+        }
+    }
+}
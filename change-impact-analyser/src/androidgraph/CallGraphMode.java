@@ -0,0 +1,52 @@
+package androidgraph;
+
+import soot.jimple.infoflow.InfoflowConfiguration;
+import soot.jimple.infoflow.android.InfoflowAndroidConfiguration;
+
+/**
+ * Precision of the FlowDroid call graph the simplified call graph is built from
+ */
+public enum CallGraphMode {
+    /**
+     * FlowDroid default settings
+     */
+    DEFAULT,
+    /**
+     * Class hierarchy analysis: fastest, with spurious virtual call edges
+     */
+    CHA,
+    /**
+     * Points-to based SPARK analysis: precise, and the slowest on large apps
+     */
+    SPARK,
+    /**
+     * SPARK with a time limit on the callback analysis, after which the callbacks found so far are used
+     */
+    SPARK_CALLBACK_TIMEOUT,
+    /**
+     * No FlowDroid call graph: the invoke instructions of the dex files are read directly and resolved by declared
+     * type, see DexPrescan. Approximate, in seconds
+     */
+    DEX_PRESCAN;
+
+    /**
+     * @param config configuration of the FlowDroid SetupApplication
+     * @param callbackTimeoutSeconds time limit of the callback analysis in SPARK_CALLBACK_TIMEOUT mode
+     */
+    void configure(InfoflowAndroidConfiguration config, int callbackTimeoutSeconds) {
+        switch (this) {
+            case CHA:
+                config.setCallgraphAlgorithm(InfoflowConfiguration.CallgraphAlgorithm.CHA);
+                break;
+            case SPARK:
+                config.setCallgraphAlgorithm(InfoflowConfiguration.CallgraphAlgorithm.SPARK);
+                break;
+            case SPARK_CALLBACK_TIMEOUT:
+                config.setCallgraphAlgorithm(InfoflowConfiguration.CallgraphAlgorithm.SPARK);
+                config.getCallbackConfig().setCallbackAnalysisTimeout(callbackTimeoutSeconds);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package androidgraph;
+
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Text recording of the FlowDroid call graph edges, so the edge scan can be replayed without running FlowDroid,
+ * e.g. by the benchmarks. One edge per line, tab separated: caller signature, callee signature, name of the invoked
+ * method and its first argument, the last two empty when the edge has no invoke statement.
+ */
+final class CallGraphRecording {
+    private CallGraphRecording() {
+    }
+
+    static void write(List<Edge> edges, File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            for (Edge edge: edges) {
+                writer.write(edge.src().toString());
+                writer.write('\t');
+                writer.write(edge.tgt().toString());
+                writer.write('\t');
+                Stmt srcStmt = edge.srcStmt();
+                if (srcStmt != null && srcStmt.containsInvokeExpr()) {
+                    InvokeExpr invokeExpr = srcStmt.getInvokeExpr();
+                    writer.write(invokeExpr.getMethodRef().getName());
+                    writer.write('\t');
+                    if (invokeExpr.getArgCount() > 0) {
+                        writer.write(invokeExpr.getArg(0).toString());
+                    }
+                } else {
+                    writer.write('\t');
+                }
+                writer.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package androidgraph;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Views, layouts and activities impacted by a set of changed methods, each with the changed methods reaching it.
+ * Views are reached from the changed methods through their callers, layouts and activities are reached from the
+ * impacted views, the same way as chaining getRelatedViews and getRelatedActivities.
+ */
+public class ChangeImpact {
+    private final Map<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> impactedViews;
+    private final Map<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> impactedLayouts;
+    private final Map<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> impactedActivities;
+    private final List<SimplifiedCallGraphNode> unknownMethods;
+    private final int visitedNodeCount;
+
+    private ChangeImpact(int _visitedNodeCount) {
+        this.impactedViews = new HashMap<>();
+        this.impactedLayouts = new HashMap<>();
+        this.impactedActivities = new HashMap<>();
+        this.unknownMethods = new ArrayList<>();
+        this.visitedNodeCount = _visitedNodeCount;
+    }
+
+    private static GraphClosure.EdgeRule impactRule(CompactCallGraph graph) {
+        return (node, predecessor) -> {
+            int predecessorType = graph.getNodeType(predecessor);
+            if (graph.getNodeType(node) == SimplifiedCallGraphNode.NODE_TYPE_FUNCTION) {
+                switch (predecessorType) {
+                    case SimplifiedCallGraphNode.NODE_TYPE_FUNCTION:
+                        return GraphClosure.EXPAND;
+                    case SimplifiedCallGraphNode.NODE_TYPE_VIEW:
+                        return GraphClosure.COLLECT | GraphClosure.EXPAND;
+                    default:
+                        return GraphClosure.IGNORE;
+                }
+            }
+            switch (predecessorType) {
+                case SimplifiedCallGraphNode.NODE_TYPE_VIEW:
+                    return GraphClosure.EXPAND;
+                case SimplifiedCallGraphNode.NODE_TYPE_LAYOUT:
+                    return GraphClosure.COLLECT | GraphClosure.EXPAND;
+                case SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY:
+                    return GraphClosure.COLLECT;
+                default:
+                    return GraphClosure.IGNORE;
+            }
+        };
+    }
+
+    /**
+     * Compute the impact of the changed methods with one backward traversal starting from all of them,
+     * visiting every node at most once
+     */
+    static ChangeImpact compute(CompactCallGraph graph, Collection<SimplifiedCallGraphNode> changedMethods) {
+        GraphClosure closure = new GraphClosure(graph, impactRule(graph));
+        Map<SimplifiedCallGraphNode, BitSet> reachedByMethod = new HashMap<>();
+        List<SimplifiedCallGraphNode> unknownMethods = new ArrayList<>();
+        for (SimplifiedCallGraphNode changedMethod: changedMethods) {
+            int node = graph.findNode(changedMethod);
+            if (node >= 0) {
+                // A method merged into another node by GraphCondenser keeps its own name
+                SimplifiedCallGraphNode methodNode = graph.getNodeValue(node).equals(changedMethod.getNodeValue())
+                        ? graph.getNode(node) : changedMethod;
+                reachedByMethod.put(methodNode, closure.closureOf(node));
+            } else {
+                unknownMethods.add(changedMethod);
+            }
+        }
+
+        ChangeImpact changeImpact = new ChangeImpact(closure.getVisitedCount());
+        changeImpact.unknownMethods.addAll(unknownMethods);
+        SimplifiedCallGraphNode[] impactedNodes = new SimplifiedCallGraphNode[closure.getCollectedCount()];
+        for (Map.Entry<SimplifiedCallGraphNode, BitSet> entry: reachedByMethod.entrySet()) {
+            BitSet reached = entry.getValue();
+            for (int ordinal = reached.nextSetBit(0); ordinal >= 0; ordinal = reached.nextSetBit(ordinal + 1)) {
+                if (impactedNodes[ordinal] == null) {
+                    impactedNodes[ordinal] = graph.getNode(closure.getCollectedNode(ordinal));
+                }
+                changeImpact.impactedBy(impactedNodes[ordinal]).add(entry.getKey());
+            }
+        }
+        return changeImpact;
+    }
+
+    private Set<SimplifiedCallGraphNode> impactedBy(SimplifiedCallGraphNode impactedNode) {
+        Map<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> impacted;
+        switch (impactedNode.getNodeType()) {
+            case SimplifiedCallGraphNode.NODE_TYPE_VIEW:
+                impacted = impactedViews;
+                break;
+            case SimplifiedCallGraphNode.NODE_TYPE_LAYOUT:
+                impacted = impactedLayouts;
+                break;
+            default:
+                impacted = impactedActivities;
+        }
+        return impacted.computeIfAbsent(impactedNode, node -> new HashSet<>());
+    }
+
+    /**
+     * @return impacted views, each with the changed methods reaching it
+     */
+    public Map<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> getImpactedViews() {
+        return Collections.unmodifiableMap(impactedViews);
+    }
+
+    /**
+     * @return impacted layouts, each with the changed methods reaching it
+     */
+    public Map<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> getImpactedLayouts() {
+        return Collections.unmodifiableMap(impactedLayouts);
+    }
+
+    /**
+     * @return impacted activities, each with the changed methods reaching it
+     */
+    public Map<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> getImpactedActivities() {
+        return Collections.unmodifiableMap(impactedActivities);
+    }
+
+    /**
+     * @return changed methods that are not part of the call graph
+     */
+    public List<SimplifiedCallGraphNode> getUnknownMethods() {
+        return Collections.unmodifiableList(unknownMethods);
+    }
+
+    /**
+     * @return number of graph nodes visited to compute this impact
+     */
+    public int getVisitedNodeCount() {
+        return visitedNodeCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder _string = new StringBuilder();
+        for (Map<SimplifiedCallGraphNode, Set<SimplifiedCallGraphNode>> impacted: List.of(impactedViews, impactedLayouts, impactedActivities)) {
+            for (SimplifiedCallGraphNode impactedNode: impacted.keySet()) {
+                _string.append(impactedNode).append('\n');
+                for (SimplifiedCallGraphNode changedMethod: impacted.get(impactedNode)) {
+                    _string.append("    ").append(changedMethod).append('\n');
+                }
+            }
+        }
+        return _string.toString();
+    }
+}
@@ -0,0 +1,372 @@
+package androidgraph;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Int-indexed store of the simplified call graph.
+ * Every node is interned once into a dense id with a one byte type tag, and the reverse adjacency
+ * (node to the nodes that call, declare or contain it) is kept in compressed-sparse-row arrays, along with the
+ * forward adjacency (node to the nodes it calls, declares or contains) derived from it.
+ * Edges are collected with {@link #addEdge(int, int)} and become visible to queries after {@link #compact()}.
+ */
+public class CompactCallGraph {
+    private static final int INITIAL_NODE_CAPACITY = 1024;
+    private static final int INITIAL_EDGE_CAPACITY = 4096;
+    private static final int NODE_TYPE_COUNT = 4;
+
+    private final List<Map<String, Integer>> nodeIndex;
+    private byte[] nodeTypes;
+    private String[] nodeValues;
+    private int nodeCount;
+
+    // Edges added since the last compaction, as (destination, source) pairs
+    private int[] pendingDests;
+    private int[] pendingSrcs;
+    private int pendingCount;
+
+    // Predecessors of node n are predecessors[predecessorOffsets[n]] .. predecessors[predecessorOffsets[n + 1] - 1]
+    private int[] predecessorOffsets;
+    private int[] predecessors;
+
+    // Successors of node n are successors[successorOffsets[n]] .. successors[successorOffsets[n + 1] - 1]
+    private int[] successorOffsets;
+    private int[] successors;
+
+    public CompactCallGraph() {
+        this.nodeIndex = new ArrayList<>(NODE_TYPE_COUNT);
+        for (int i = 0; i < NODE_TYPE_COUNT; i++) {
+            nodeIndex.add(new HashMap<>());
+        }
+        this.nodeTypes = new byte[INITIAL_NODE_CAPACITY];
+        this.nodeValues = new String[INITIAL_NODE_CAPACITY];
+        this.pendingDests = new int[INITIAL_EDGE_CAPACITY];
+        this.pendingSrcs = new int[INITIAL_EDGE_CAPACITY];
+        this.predecessorOffsets = new int[1];
+        this.predecessors = new int[0];
+        this.successorOffsets = new int[1];
+        this.successors = new int[0];
+    }
+
+    private static int typeSlot(int nodeType) {
+        switch (nodeType) {
+            case SimplifiedCallGraphNode.NODE_TYPE_FUNCTION:
+            case SimplifiedCallGraphNode.NODE_TYPE_VIEW:
+            case SimplifiedCallGraphNode.NODE_TYPE_LAYOUT:
+            case SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY:
+                return Integer.numberOfTrailingZeros(nodeType);
+            default:
+                throw new IllegalArgumentException("Unknown node type " + nodeType);
+        }
+    }
+
+    /**
+     * Return the id of the given node, adding it to the graph if it is not known yet
+     * @param nodeType one of the SimplifiedCallGraphNode.NODE_TYPE_* constants
+     * @param nodeValue method signature, class name or resource name of the node
+     * @return dense id of the node
+     */
+    public int internNode(int nodeType, String nodeValue) {
+        Map<String, Integer> index = nodeIndex.get(typeSlot(nodeType));
+        Integer existing = index.get(nodeValue);
+        if (existing != null) {
+            return existing;
+        }
+        if (nodeCount == nodeTypes.length) {
+            nodeTypes = Arrays.copyOf(nodeTypes, nodeCount * 2);
+            nodeValues = Arrays.copyOf(nodeValues, nodeCount * 2);
+        }
+        int node = nodeCount++;
+        nodeTypes[node] = (byte) nodeType;
+        nodeValues[node] = nodeValue;
+        index.put(nodeValue, node);
+        return node;
+    }
+
+    /**
+     * @return id of the given node, or -1 if the graph does not contain it
+     */
+    public int findNode(int nodeType, String nodeValue) {
+        Integer node = nodeIndex.get(typeSlot(nodeType)).get(nodeValue);
+        return node == null ? -1 : node;
+    }
+
+    public int findNode(SimplifiedCallGraphNode node) {
+        return findNode(node.getNodeType(), node.getNodeValue());
+    }
+
+    /**
+     * Make findNode return the given node for another value, e.g. for a method merged into the node by GraphCondenser.
+     * Aliases are not written by writeTo or the exporters
+     */
+    void addAlias(int nodeType, String aliasValue, int node) {
+        nodeIndex.get(typeSlot(nodeType)).putIfAbsent(aliasValue, node);
+    }
+
+    /**
+     * Record that dest is reached from src (callee from caller, function from its activity, view from its layout...)
+     */
+    public void addEdge(int dest, int src) {
+        if (pendingCount == pendingDests.length) {
+            pendingDests = Arrays.copyOf(pendingDests, pendingCount * 2);
+            pendingSrcs = Arrays.copyOf(pendingSrcs, pendingCount * 2);
+        }
+        pendingDests[pendingCount] = dest;
+        pendingSrcs[pendingCount] = src;
+        pendingCount++;
+    }
+
+    /**
+     * Merge the edges added since the last call into the CSR arrays, dropping duplicated edges
+     */
+    public void compact() {
+        int existingCount = predecessors.length;
+        long[] edges = new long[existingCount + pendingCount];
+        int edgeCount = 0;
+        for (int dest = 0; dest + 1 < predecessorOffsets.length; dest++) {
+            for (int i = predecessorOffsets[dest]; i < predecessorOffsets[dest + 1]; i++) {
+                edges[edgeCount++] = ((long) dest << 32) | predecessors[i];
+            }
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            edges[edgeCount++] = ((long) pendingDests[i] << 32) | pendingSrcs[i];
+        }
+        Arrays.sort(edges, 0, edgeCount);
+
+        int[] offsets = new int[nodeCount + 1];
+        int[] targets = new int[edgeCount];
+        int uniqueCount = 0;
+        for (int i = 0; i < edgeCount; i++) {
+            if (i > 0 && edges[i] == edges[i - 1]) {
+                continue;
+            }
+            offsets[(int) (edges[i] >>> 32) + 1]++;
+            targets[uniqueCount++] = (int) edges[i];
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+
+        this.predecessorOffsets = offsets;
+        this.predecessors = uniqueCount == edgeCount ? targets : Arrays.copyOf(targets, uniqueCount);
+        buildSuccessors();
+        this.pendingDests = new int[INITIAL_EDGE_CAPACITY];
+        this.pendingSrcs = new int[INITIAL_EDGE_CAPACITY];
+        this.pendingCount = 0;
+    }
+
+    /**
+     * Transpose the predecessor arrays into the successor arrays with a counting pass
+     */
+    private void buildSuccessors() {
+        int[] offsets = new int[nodeCount + 1];
+        for (int predecessor: predecessors) {
+            offsets[predecessor + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        int[] targets = new int[predecessors.length];
+        int[] positions = Arrays.copyOf(offsets, nodeCount);
+        for (int dest = 0; dest + 1 < predecessorOffsets.length; dest++) {
+            for (int i = predecessorOffsets[dest]; i < predecessorOffsets[dest + 1]; i++) {
+                targets[positions[predecessors[i]]++] = dest;
+            }
+        }
+        this.successorOffsets = offsets;
+        this.successors = targets;
+    }
+
+    /**
+     * Write the compacted graph in the binary format read by {@link #readFrom(ByteBuffer)}
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        if (pendingCount > 0) {
+            compact();
+        }
+        out.writeInt(nodeCount);
+        out.write(nodeTypes, 0, nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            BinaryIO.writeString(out, nodeValues[node]);
+        }
+        BinaryIO.writeIntArray(out, predecessorOffsets, predecessorOffsets.length);
+        BinaryIO.writeIntArray(out, predecessors, predecessors.length);
+    }
+
+    /**
+     * Load a graph written by {@link #writeTo(DataOutput)} into this empty graph
+     */
+    public void readFrom(ByteBuffer in) {
+        if (nodeCount > 0 || pendingCount > 0) {
+            throw new IllegalStateException("A graph can only be loaded into an empty graph");
+        }
+        int count = in.getInt();
+        byte[] types = new byte[count];
+        in.get(types);
+        nodeTypes = new byte[Math.max(count, INITIAL_NODE_CAPACITY)];
+        nodeValues = new String[nodeTypes.length];
+        for (int node = 0; node < count; node++) {
+            internNode(types[node], BinaryIO.readString(in));
+        }
+        this.predecessorOffsets = BinaryIO.readIntArray(in);
+        this.predecessors = BinaryIO.readIntArray(in);
+        buildSuccessors();
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return predecessors.length;
+    }
+
+    /**
+     * @return approximate heap size of the graph, its node values and its node index
+     */
+    public long estimateMemoryBytes() {
+        // Object header and array header sizes of a 64 bit JVM with compressed oops
+        final long objectHeader = 16;
+        final long arrayHeader = 16;
+        long bytes = arrayHeader + nodeTypes.length + arrayHeader + 4L * nodeValues.length;
+        bytes += 2 * arrayHeader + 4L * (predecessorOffsets.length + predecessors.length);
+        bytes += 2 * arrayHeader + 4L * (successorOffsets.length + successors.length);
+        bytes += 2 * arrayHeader + 8L * pendingDests.length;
+        long indexEntries = 0;
+        for (Map<String, Integer> index: nodeIndex) {
+            indexEntries += index.size();
+        }
+        // HashMap node, boxed id and table slots per entry
+        bytes += indexEntries * (32 + objectHeader + 8);
+        for (int node = 0; node < nodeCount; node++) {
+            bytes += objectHeader + 8 + arrayHeader + nodeValues[node].length();
+        }
+        return bytes;
+    }
+
+    public int getNodeType(int node) {
+        return nodeTypes[node];
+    }
+
+    public String getNodeValue(int node) {
+        return nodeValues[node];
+    }
+
+    /**
+     * @return a public API view of the given node, carrying the graph id as its unique id
+     */
+    public SimplifiedCallGraphNode getNode(int node) {
+        return new SimplifiedCallGraphNode(nodeTypes[node], nodeValues[node], node);
+    }
+
+    public boolean hasPredecessors(int node) {
+        return node + 1 < predecessorOffsets.length && predecessorOffsets[node] != predecessorOffsets[node + 1];
+    }
+
+    public int getPredecessorStart(int node) {
+        return node + 1 < predecessorOffsets.length ? predecessorOffsets[node] : 0;
+    }
+
+    public int getPredecessorEnd(int node) {
+        return node + 1 < predecessorOffsets.length ? predecessorOffsets[node + 1] : 0;
+    }
+
+    public int getPredecessor(int index) {
+        return predecessors[index];
+    }
+
+    public int getSuccessorStart(int node) {
+        return node + 1 < successorOffsets.length ? successorOffsets[node] : 0;
+    }
+
+    public int getSuccessorEnd(int node) {
+        return node + 1 < successorOffsets.length ? successorOffsets[node + 1] : 0;
+    }
+
+    public int getSuccessor(int index) {
+        return successors[index];
+    }
+
+    /**
+     * Walk the reverse edges from baseNode, collecting the nodes of targetNodeType and expanding only
+     * through nodes of a lower type
+     * @return ids of the collected nodes
+     */
+    public BitSet traceBack(int baseNode, int targetNodeType) {
+        BitSet collectedNodes = new BitSet();
+        BitSet processedNodes = new BitSet(nodeCount);
+        int[] nodesToProcess = new int[16];
+        int head = 0;
+        int tail = 0;
+
+        nodesToProcess[tail++] = baseNode;
+        processedNodes.set(baseNode);
+        while (head < tail) {
+            int nodeToProcess = nodesToProcess[head++];
+            for (int i = getPredecessorStart(nodeToProcess); i < getPredecessorEnd(nodeToProcess); i++) {
+                int relatedNode = predecessors[i];
+                int relatedType = nodeTypes[relatedNode];
+                if (relatedType == targetNodeType) {
+                    collectedNodes.set(relatedNode);
+                } else if (relatedType < targetNodeType && !processedNodes.get(relatedNode)) {
+                    processedNodes.set(relatedNode);
+                    if (tail == nodesToProcess.length) {
+                        nodesToProcess = Arrays.copyOf(nodesToProcess, tail * 2);
+                    }
+                    nodesToProcess[tail++] = relatedNode;
+                }
+            }
+        }
+        return collectedNodes;
+    }
+
+    /**
+     * Walk the forward edges from the base nodes, collecting the nodes of targetNodeType and expanding through
+     * the nodes of targetNodeType or a higher type, e.g. from activities to the functions they declare and to every
+     * function these call. Views have no successors, so walks from views collect nothing
+     * @param baseNodes ids of the nodes to start from, which are not collected themselves
+     * @return ids of the collected nodes
+     */
+    public BitSet traceForward(int[] baseNodes, int targetNodeType) {
+        BitSet collectedNodes = new BitSet();
+        BitSet processedNodes = new BitSet(nodeCount);
+        int[] nodesToProcess = new int[Math.max(16, baseNodes.length)];
+        int head = 0;
+        int tail = 0;
+
+        for (int baseNode: baseNodes) {
+            if (!processedNodes.get(baseNode)) {
+                processedNodes.set(baseNode);
+                nodesToProcess[tail++] = baseNode;
+            }
+        }
+        while (head < tail) {
+            int nodeToProcess = nodesToProcess[head++];
+            for (int i = getSuccessorStart(nodeToProcess); i < getSuccessorEnd(nodeToProcess); i++) {
+                int relatedNode = successors[i];
+                int relatedType = nodeTypes[relatedNode];
+                if (relatedType < targetNodeType) {
+                    continue;
+                }
+                if (relatedType == targetNodeType) {
+                    collectedNodes.set(relatedNode);
+                }
+                if (!processedNodes.get(relatedNode)) {
+                    processedNodes.set(relatedNode);
+                    if (tail == nodesToProcess.length) {
+                        nodesToProcess = Arrays.copyOf(nodesToProcess, tail * 2);
+                    }
+                    nodesToProcess[tail++] = relatedNode;
+                }
+            }
+        }
+        return collectedNodes;
+    }
+}
@@ -0,0 +1,72 @@
+package androidgraph;
+
+import soot.SootClass;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memoized classification of classes into Android component kinds.
+ * Each class is resolved once: its kinds are the kinds of its own name combined with the kinds of its outer class,
+ * or of its superclass for top-level classes, so all methods of a class share the cached bitmask.
+ */
+public class ComponentClassifier {
+    public static final int KIND_ACTIVITY = 1;
+    public static final int KIND_FRAGMENT = 2;
+    public static final int KIND_SERVICE = 4;
+    public static final int KIND_BROADCAST_RECEIVER = 8;
+    public static final int KIND_VIEW = 16;
+
+    private final Map<String, Integer> classKinds;
+
+    public ComponentClassifier() {
+        this.classKinds = new HashMap<>();
+    }
+
+    /**
+     * @return kinds of the framework base class with the given name, 0 for any other class
+     */
+    public static int getBaseClassKinds(String className) {
+        switch (className) {
+            case "android.app.Activity":
+                return KIND_ACTIVITY;
+            case "android.app.Fragment":
+            case "android.support.v4.app.Fragment":
+            case "androidx.fragment.app.Fragment":
+                return KIND_FRAGMENT;
+            case "android.app.Service":
+                return KIND_SERVICE;
+            case "android.content.BroadcastReceiver":
+                return KIND_BROADCAST_RECEIVER;
+            case "android.view.View":
+                return KIND_VIEW;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return bitmask of the KIND_* constants the class belongs to
+     */
+    public int getKinds(SootClass sootClass) {
+        Integer cachedKinds = classKinds.get(sootClass.getName());
+        if (cachedKinds != null) {
+            return cachedKinds;
+        }
+        int kinds = getBaseClassKinds(sootClass.getName());
+        if (sootClass.hasOuterClass()) {
+            kinds |= getKinds(sootClass.getOuterClass());
+        } else if (sootClass.hasSuperclass()) {
+            kinds |= getKinds(sootClass.getSuperclass());
+        }
+        classKinds.put(sootClass.getName(), kinds);
+        return kinds;
+    }
+
+    /**
+     * @return kinds of an already classified class, -1 if the class was never classified
+     */
+    public int getKinds(String className) {
+        return classKinds.getOrDefault(className, -1);
+    }
+}
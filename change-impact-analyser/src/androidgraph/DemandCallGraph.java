@@ -0,0 +1,138 @@
+package androidgraph;
+
+import soot.FastHierarchy;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Call edges of a simplified call graph added on demand, instead of projecting a whole-program FlowDroid call graph.
+ * The invoke sites of the dex files are indexed by the sub-signature of the invoked method, see DexPrescan, and the
+ * callers of a method are only resolved when a query reaches it: a site calls the method if it names its class, or,
+ * for a virtual method, a supertype of its class in the Scene hierarchy. Each method is expanded once, so later
+ * queries reuse the edges added by earlier ones.
+ */
+final class DemandCallGraph implements DexPrescan.CallHandler {
+    private final CompactCallGraph graph;
+    private final Map<String, CallSites> sitesBySubSignature = new HashMap<>();
+    private final Set<String> expandedMethods = new HashSet<>();
+    private int siteCount;
+    private long addedEdges;
+
+    /**
+     * Invoke sites of one sub-signature, as the declared class of the invoked method and the calling method
+     */
+    private static final class CallSites {
+        private String[] declaredClasses = new String[4];
+        private String[] callers = new String[4];
+        private int size;
+
+        void add(String declaredClass, String caller) {
+            if (size == callers.length) {
+                declaredClasses = Arrays.copyOf(declaredClasses, size * 2);
+                callers = Arrays.copyOf(callers, size * 2);
+            }
+            declaredClasses[size] = declaredClass;
+            callers[size] = caller;
+            size++;
+        }
+    }
+
+    /**
+     * @param _graph graph the resolved call edges are added to
+     */
+    DemandCallGraph(CompactCallGraph _graph) {
+        this.graph = _graph;
+    }
+
+    @Override
+    public void handleCall(String callee, String caller) {
+        sitesBySubSignature.computeIfAbsent(getSubSignature(callee), k -> new CallSites())
+                .add(DexMethodScanner.getClassOfSignature(callee), caller);
+        siteCount++;
+    }
+
+    /**
+     * @return sub-signature of a Soot method signature, e.g. void onCreate(android.os.Bundle)
+     */
+    private static String getSubSignature(String signature) {
+        return signature.substring(signature.indexOf(": ") + 2, signature.length() - 1);
+    }
+
+    /**
+     * Add the callers of the given methods to the graph, then the callers of these callers, until every method
+     * reached has been expanded, and compact the graph
+     * @param signatures Soot signatures of the methods to start from
+     * @return number of methods expanded by this call, 0 when all of them were expanded by earlier calls
+     */
+    int expand(Collection<String> signatures) {
+        FastHierarchy hierarchy = Scene.v().getOrMakeFastHierarchy();
+        Deque<String> methodsToExpand = new ArrayDeque<>(signatures);
+        int expandedCount = 0;
+        while (!methodsToExpand.isEmpty()) {
+            String signature = methodsToExpand.poll();
+            if (!expandedMethods.add(signature)) {
+                continue;
+            }
+            expandedCount++;
+            CallSites sites = sitesBySubSignature.get(getSubSignature(signature));
+            if (sites == null) {
+                continue;
+            }
+            String className = DexMethodScanner.getClassOfSignature(signature);
+            SootMethod method = Scene.v().grabMethod(signature);
+            SootClass calleeClass = Scene.v().getSootClassUnsafe(className, false);
+            boolean isVirtual = method != null && calleeClass != null
+                    && !method.isStatic() && !method.isPrivate() && !method.isConstructor();
+            int calleeNode = -1;
+            for (int i = 0; i < sites.size; i++) {
+                if (!sites.declaredClasses[i].equals(className)
+                        && !(isVirtual && isSubclass(hierarchy, calleeClass, sites.declaredClasses[i]))) {
+                    continue;
+                }
+                if (calleeNode < 0) {
+                    calleeNode = graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, signature);
+                }
+                graph.addEdge(calleeNode, graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, sites.callers[i]));
+                addedEdges++;
+                methodsToExpand.add(sites.callers[i]);
+            }
+        }
+        if (expandedCount > 0) {
+            graph.compact();
+        }
+        return expandedCount;
+    }
+
+    private static boolean isSubclass(FastHierarchy hierarchy, SootClass calleeClass, String declaredClassName) {
+        SootClass declaredClass = Scene.v().getSootClassUnsafe(declaredClassName, false);
+        return declaredClass != null && hierarchy.canStoreClass(calleeClass, declaredClass);
+    }
+
+    /**
+     * @return number of indexed invoke sites
+     */
+    int getSiteCount() {
+        return siteCount;
+    }
+
+    int getExpandedMethodCount() {
+        return expandedMethods.size();
+    }
+
+    /**
+     * @return number of call edges added by the expansions so far, counting duplicated edges
+     */
+    long getAddedEdgeCount() {
+        return addedEdges;
+    }
+}
@@ -0,0 +1,359 @@
+package androidgraph;
+
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.ReferenceType;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.ExceptionHandler;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.jf.dexlib2.iface.TryBlock;
+import org.jf.dexlib2.iface.instruction.FiveRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.NarrowLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.OffsetInstruction;
+import org.jf.dexlib2.iface.instruction.OneRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.RegisterRangeInstruction;
+import org.jf.dexlib2.iface.instruction.SwitchElement;
+import org.jf.dexlib2.iface.instruction.SwitchPayload;
+import org.jf.dexlib2.iface.instruction.ThreeRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.TwoRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.VariableRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.WideLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.MethodReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Direct reader of the dex files of an APK, with signatures converted to the Soot format used by the call graph.
+ * Used to hash method bodies and to extract invoke instructions without running Soot.
+ */
+public class DexMethodScanner {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Receives the invoke instructions of a method
+     */
+    public interface InvokeHandler {
+        /**
+         * @param callee Soot signature of the invoked method, resolved by declared type
+         * @param calleeName simple name of the invoked method
+         * @param hasConstantArgument true if the first non-receiver argument holds a known int constant
+         * @param constantArgument value of that constant
+         */
+        void handleInvoke(String callee, String calleeName, boolean hasConstantArgument, int constantArgument);
+    }
+
+    private final Map<String, ClassDef> classes;
+    private final Map<String, Integer> componentKinds;
+    private final Map<String, Set<String>> declaredMethodKeys;
+
+    /**
+     * @param apkFile APK whose dex files (including the secondary dex files of multidex apps) are read
+     * @throws IOException when the APK cannot be read
+     */
+    public DexMethodScanner(File apkFile) throws IOException {
+        this.classes = new HashMap<>();
+        this.componentKinds = new HashMap<>();
+        this.declaredMethodKeys = new HashMap<>();
+        MultiDexContainer<? extends DexBackedDexFile> container = DexFileFactory.loadDexContainer(apkFile, Opcodes.getDefault());
+        for (String entryName: container.getDexEntryNames()) {
+            for (ClassDef classDef: container.getEntry(entryName).getClasses()) {
+                classes.putIfAbsent(toSootType(classDef.getType()), classDef);
+            }
+        }
+    }
+
+    /**
+     * Convert a dex type descriptor such as Lcom/example/Main; or [I to its Soot name
+     */
+    public static String toSootType(String descriptor) {
+        int dimensions = 0;
+        while (descriptor.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String baseType;
+        switch (descriptor.charAt(dimensions)) {
+            case 'V': baseType = "void"; break;
+            case 'Z': baseType = "boolean"; break;
+            case 'B': baseType = "byte"; break;
+            case 'S': baseType = "short"; break;
+            case 'C': baseType = "char"; break;
+            case 'I': baseType = "int"; break;
+            case 'J': baseType = "long"; break;
+            case 'F': baseType = "float"; break;
+            case 'D': baseType = "double"; break;
+            default:
+                baseType = descriptor.substring(dimensions + 1, descriptor.length() - 1).replace('/', '.');
+        }
+        if (dimensions == 0) {
+            return baseType;
+        }
+        StringBuilder sootType = new StringBuilder(baseType);
+        for (int i = 0; i < dimensions; i++) {
+            sootType.append("[]");
+        }
+        return sootType.toString();
+    }
+
+    /**
+     * @return signature of the method in the Soot format, e.g. &lt;com.example.Main: void onCreate(android.os.Bundle)&gt;
+     */
+    public static String toSootSignature(String className, MethodReference method) {
+        StringBuilder signature = new StringBuilder("<").append(className).append(": ")
+                .append(toSootType(method.getReturnType())).append(' ').append(method.getName()).append('(');
+        List<? extends CharSequence> parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            signature.append(toSootType(parameterTypes.get(i).toString()));
+        }
+        return signature.append(")>").toString();
+    }
+
+    public static String toSootSignature(MethodReference method) {
+        return toSootSignature(toSootType(method.getDefiningClass()), method);
+    }
+
+    /**
+     * @return declaring class of a Soot method signature
+     */
+    public static String getClassOfSignature(String signature) {
+        return signature.substring(1, signature.indexOf(':'));
+    }
+
+    public Collection<ClassDef> getClasses() {
+        return classes.values();
+    }
+
+    /**
+     * @return the class with the given Soot name, or null if no dex file of the APK defines it
+     */
+    public ClassDef getClass(String className) {
+        return classes.get(className);
+    }
+
+    /**
+     * Resolve a method reference by its declared type: the first class of the superclass chain that is defined
+     * in the APK and declares the method. References to methods not found in the APK keep their declared type.
+     * @return Soot signature of the resolved method
+     */
+    public String resolveMethod(MethodReference method) {
+        String className = toSootType(method.getDefiningClass());
+        String methodKey = methodKey(method);
+        ClassDef classDef = classes.get(className);
+        while (classDef != null) {
+            if (declaredMethods(classDef).contains(methodKey)) {
+                return toSootSignature(toSootType(classDef.getType()), method);
+            }
+            if (classDef.getSuperclass() == null) {
+                break;
+            }
+            classDef = classes.get(toSootType(classDef.getSuperclass()));
+        }
+        return toSootSignature(className, method);
+    }
+
+    private static String methodKey(MethodReference method) {
+        StringBuilder methodKey = new StringBuilder(method.getName()).append('(');
+        for (CharSequence parameterType: method.getParameterTypes()) {
+            methodKey.append(parameterType);
+        }
+        return methodKey.append(')').append(method.getReturnType()).toString();
+    }
+
+    private Set<String> declaredMethods(ClassDef classDef) {
+        return declaredMethodKeys.computeIfAbsent(classDef.getType(), type -> {
+            Set<String> methodKeys = new HashSet<>();
+            for (Method declaredMethod: classDef.getMethods()) {
+                methodKeys.add(methodKey(declaredMethod));
+            }
+            return methodKeys;
+        });
+    }
+
+    /**
+     * Classify a class the same way as ComponentClassifier, through its outer class (by name) or its superclass
+     * @return bitmask of the ComponentClassifier.KIND_* constants
+     */
+    public int getComponentKinds(String className) {
+        Integer cachedKinds = componentKinds.get(className);
+        if (cachedKinds != null) {
+            return cachedKinds;
+        }
+        int kinds = ComponentClassifier.getBaseClassKinds(className);
+        ClassDef classDef = classes.get(className);
+        if (className.indexOf('$') > 0) {
+            kinds |= getComponentKinds(className.substring(0, className.lastIndexOf('$')));
+        } else if (classDef != null && classDef.getSuperclass() != null) {
+            kinds |= getComponentKinds(toSootType(classDef.getSuperclass()));
+        }
+        componentKinds.put(className, kinds);
+        return kinds;
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    private static long mix(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = mix(hash, value.charAt(i));
+        }
+        return mix(hash, value.length());
+    }
+
+    /**
+     * Hash the body of a method: access flags, instructions with their registers, literals, offsets and
+     * references, and the try blocks. Two methods with the same hash are considered unchanged.
+     * @return 64 bit FNV-1a hash of the method body
+     */
+    public static long hashMethodBody(Method method) {
+        long hash = mix(FNV_OFFSET_BASIS, method.getAccessFlags());
+        MethodImplementation implementation = method.getImplementation();
+        if (implementation == null) {
+            return hash;
+        }
+        hash = mix(hash, implementation.getRegisterCount());
+        for (Instruction instruction: implementation.getInstructions()) {
+            hash = mix(hash, instruction.getOpcode().ordinal());
+            if (instruction instanceof OneRegisterInstruction) {
+                hash = mix(hash, ((OneRegisterInstruction) instruction).getRegisterA());
+            }
+            if (instruction instanceof TwoRegisterInstruction) {
+                hash = mix(hash, ((TwoRegisterInstruction) instruction).getRegisterB());
+            }
+            if (instruction instanceof ThreeRegisterInstruction) {
+                hash = mix(hash, ((ThreeRegisterInstruction) instruction).getRegisterC());
+            }
+            if (instruction instanceof VariableRegisterInstruction) {
+                hash = mix(hash, ((VariableRegisterInstruction) instruction).getRegisterCount());
+            }
+            if (instruction instanceof FiveRegisterInstruction) {
+                FiveRegisterInstruction registers = (FiveRegisterInstruction) instruction;
+                hash = mix(hash, registers.getRegisterC());
+                hash = mix(hash, registers.getRegisterD());
+                hash = mix(hash, registers.getRegisterE());
+                hash = mix(hash, registers.getRegisterF());
+                hash = mix(hash, registers.getRegisterG());
+            }
+            if (instruction instanceof RegisterRangeInstruction) {
+                hash = mix(hash, ((RegisterRangeInstruction) instruction).getStartRegister());
+            }
+            if (instruction instanceof WideLiteralInstruction) {
+                hash = mix(hash, ((WideLiteralInstruction) instruction).getWideLiteral());
+            }
+            if (instruction instanceof OffsetInstruction) {
+                hash = mix(hash, ((OffsetInstruction) instruction).getCodeOffset());
+            }
+            if (instruction instanceof ReferenceInstruction) {
+                hash = mix(hash, ((ReferenceInstruction) instruction).getReference().toString());
+            }
+            if (instruction instanceof SwitchPayload) {
+                for (SwitchElement switchElement: ((SwitchPayload) instruction).getSwitchElements()) {
+                    hash = mix(hash, switchElement.getKey());
+                    hash = mix(hash, switchElement.getOffset());
+                }
+            }
+            if (instruction instanceof ArrayPayload) {
+                for (Number element: ((ArrayPayload) instruction).getArrayElements()) {
+                    hash = mix(hash, element.longValue());
+                }
+            }
+        }
+        for (TryBlock<? extends ExceptionHandler> tryBlock: implementation.getTryBlocks()) {
+            hash = mix(hash, tryBlock.getStartCodeAddress());
+            hash = mix(hash, tryBlock.getCodeUnitCount());
+            for (ExceptionHandler exceptionHandler: tryBlock.getExceptionHandlers()) {
+                hash = mix(hash, exceptionHandler.getHandlerCodeAddress());
+                if (exceptionHandler.getExceptionType() != null) {
+                    hash = mix(hash, exceptionHandler.getExceptionType());
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return body hash of every method defined in the APK, by Soot signature
+     */
+    public Map<String, Long> hashMethodBodies() {
+        Map<String, Long> bodyHashes = new HashMap<>();
+        for (Map.Entry<String, ClassDef> classEntry: classes.entrySet()) {
+            for (Method method: classEntry.getValue().getMethods()) {
+                bodyHashes.put(toSootSignature(classEntry.getKey(), method), hashMethodBody(method));
+            }
+        }
+        return bodyHashes;
+    }
+
+    /**
+     * Report the invoke instructions of a method. Int constants are tracked per register along the instruction
+     * sequence, which is enough for the const/invoke pairs emitted for findViewById(R.id.x) and setContentView(R.layout.x)
+     */
+    public void scanInvokes(Method method, InvokeHandler handler) {
+        MethodImplementation implementation = method.getImplementation();
+        if (implementation == null) {
+            return;
+        }
+        int registerCount = implementation.getRegisterCount();
+        int[] constants = new int[registerCount];
+        boolean[] knownConstants = new boolean[registerCount];
+        for (Instruction instruction: implementation.getInstructions()) {
+            Opcode opcode = instruction.getOpcode();
+            if (opcode.referenceType == ReferenceType.METHOD && instruction instanceof ReferenceInstruction
+                    && opcode.name.startsWith("invoke")) {
+                MethodReference callee = (MethodReference) ((ReferenceInstruction) instruction).getReference();
+                int argumentRegister = firstArgumentRegister(instruction, opcode);
+                boolean hasConstantArgument = argumentRegister >= 0 && argumentRegister < registerCount && knownConstants[argumentRegister];
+                handler.handleInvoke(resolveMethod(callee), callee.getName(), hasConstantArgument,
+                        hasConstantArgument ? constants[argumentRegister] : 0);
+            }
+            if (opcode.setsRegister() && instruction instanceof OneRegisterInstruction) {
+                int register = ((OneRegisterInstruction) instruction).getRegisterA();
+                boolean isConstant = instruction instanceof NarrowLiteralInstruction && opcode.name.startsWith("const")
+                        && !opcode.setsWideRegister();
+                if (register < registerCount) {
+                    knownConstants[register] = isConstant;
+                    constants[register] = isConstant ? ((NarrowLiteralInstruction) instruction).getNarrowLiteral() : 0;
+                }
+                if (opcode.setsWideRegister() && register + 1 < registerCount) {
+                    knownConstants[register + 1] = false;
+                }
+            }
+        }
+    }
+
+    private static int firstArgumentRegister(Instruction instruction, Opcode opcode) {
+        boolean isStatic = opcode == Opcode.INVOKE_STATIC || opcode == Opcode.INVOKE_STATIC_RANGE;
+        int argumentIndex = isStatic ? 0 : 1;
+        if (instruction instanceof FiveRegisterInstruction) {
+            FiveRegisterInstruction registers = (FiveRegisterInstruction) instruction;
+            if (registers.getRegisterCount() <= argumentIndex) {
+                return -1;
+            }
+            return argumentIndex == 0 ? registers.getRegisterC() : registers.getRegisterD();
+        } else if (instruction instanceof RegisterRangeInstruction) {
+            RegisterRangeInstruction registers = (RegisterRangeInstruction) instruction;
+            if (registers.getRegisterCount() <= argumentIndex) {
+                return -1;
+            }
+            return registers.getStartRegister() + argumentIndex;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,127 @@
+package androidgraph;
+
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+
+/**
+ * Builds an approximate simplified call graph straight from the invoke instructions of the dex files, without
+ * Soot or FlowDroid. Calls are resolved by declared type, so virtual calls only reach the method of the declared
+ * class or its closest superclass, and callbacks invoked by the framework have no caller. findViewById and
+ * setContentView calls with a constant resource ID give the same activity edges as CallGraphEdgeScanner.
+ */
+final class DexPrescan {
+    private static final String[] VIEW_PACKAGES = {"android.view.", "android.widget.", "android.webkit."};
+    private static final String[] COUNTERS = {"methods", "invokes", "excludedCalls", "skippedFindViewByIdSites",
+            "skippedSetContentViewSites", "unresolvedResourceIds"};
+
+    /**
+     * Receives the calls between methods of accepted classes
+     */
+    interface CallHandler {
+        /**
+         * @param callee Soot signature of the invoked method, resolved by declared type
+         * @param caller Soot signature of the method holding the invoke instruction
+         */
+        void handleCall(String callee, String caller);
+    }
+
+    private DexPrescan() {
+    }
+
+    /**
+     * @param dex dex files of the analysed APK
+     * @param appInfo receives the functions of every class, and provides the resource IDs
+     * @param packageFilter classes whose methods are kept, see APKAnalyser.setPackageFilter
+     * @param graph receives the nodes and edges, not compacted
+     */
+    static void build(DexMethodScanner dex, AppInfo appInfo, PackageFilter packageFilter, CompactCallGraph graph,
+                      AnalysisMetrics metrics) {
+        // Like in the FlowDroid projection, only the methods with an edge become nodes
+        build(dex, appInfo, packageFilter, graph, metrics, (callee, caller) -> graph.addEdge(
+                graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, callee),
+                graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, caller)));
+    }
+
+    /**
+     * Add the functions, activity and resource edges like build, passing the calls to the given handler instead of
+     * adding them to the graph
+     */
+    static void build(DexMethodScanner dex, AppInfo appInfo, PackageFilter packageFilter, CompactCallGraph graph,
+                      AnalysisMetrics metrics, CallHandler calls) {
+        // Counted locally, in the order of COUNTERS, and added to the metrics at the end
+        long[] counts = new long[COUNTERS.length];
+        for (ClassDef classDef: dex.getClasses()) {
+            String className = DexMethodScanner.toSootType(classDef.getType());
+            boolean accepted = packageFilter.accepts(className);
+            boolean isActivity = (dex.getComponentKinds(className) & ComponentClassifier.KIND_ACTIVITY) != 0;
+            for (Method method: classDef.getMethods()) {
+                counts[0]++;
+                String signature = DexMethodScanner.toSootSignature(className, method);
+                appInfo.addFunction(className, signature);
+                if (!accepted) {
+                    continue;
+                }
+                if (isActivity) {
+                    graph.addEdge(graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, signature),
+                            graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, className));
+                }
+                dex.scanInvokes(method, (callee, calleeName, hasConstantArgument, constantArgument) -> {
+                    counts[1]++;
+                    if (packageFilter.accepts(DexMethodScanner.getClassOfSignature(callee))) {
+                        calls.handleCall(callee, signature);
+                    } else {
+                        counts[2]++;
+                    }
+                    int resourceType;
+                    if (calleeName.equals("findViewById")) {
+                        resourceType = SimplifiedCallGraphNode.NODE_TYPE_VIEW;
+                    } else if (calleeName.equals("setContentView")) {
+                        resourceType = SimplifiedCallGraphNode.NODE_TYPE_LAYOUT;
+                    } else {
+                        return;
+                    }
+                    if (!hasConstantArgument) {
+                        counts[resourceType == SimplifiedCallGraphNode.NODE_TYPE_VIEW ? 3 : 4]++;
+                        return;
+                    }
+                    String resourceName = appInfo.getResourceIDStr(constantArgument);
+                    if (resourceName != null) {
+                        graph.addEdge(graph.internNode(resourceType, resourceName),
+                                graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, className));
+                    } else {
+                        counts[5]++;
+                    }
+                });
+            }
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            metrics.add(COUNTERS[i], counts[i]);
+        }
+    }
+
+    /**
+     * Decide whether a layout element is a view without the Scene: names without a package are framework widgets
+     * when they look like class names, other names are views if they or a superclass defined in the APK belong
+     * to a framework view package
+     * @param tag element name of a layout file
+     */
+    static boolean isViewTag(DexMethodScanner dex, String tag) {
+        if (tag.isEmpty() || tag.contains("(") || tag.contains("<") || tag.contains("/")) {
+            return false;
+        }
+        if (tag.indexOf('.') < 0) {
+            return Character.isUpperCase(tag.charAt(0));
+        }
+        String className = tag;
+        while (className != null) {
+            for (String viewPackage: VIEW_PACKAGES) {
+                if (className.startsWith(viewPackage)) {
+                    return true;
+                }
+            }
+            ClassDef classDef = dex.getClass(className);
+            className = classDef == null || classDef.getSuperclass() == null ? null : DexMethodScanner.toSootType(classDef.getSuperclass());
+        }
+        return false;
+    }
+}
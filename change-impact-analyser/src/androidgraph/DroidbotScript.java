@@ -0,0 +1,110 @@
+package androidgraph;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Views and activities a droidbot input script interacts with, read from the resource_id selectors of its views
+ * and the activity selectors of its states. Like droidbot, a selector matches a value when the regular expression
+ * matches a prefix of it
+ */
+public class DroidbotScript {
+    private final String name;
+    private final List<Pattern> resourceIDPatterns;
+    private final List<Pattern> activityPatterns;
+
+    DroidbotScript(String _name, List<Pattern> _resourceIDPatterns, List<Pattern> _activityPatterns) {
+        this.name = _name;
+        this.resourceIDPatterns = Collections.unmodifiableList(_resourceIDPatterns);
+        this.activityPatterns = Collections.unmodifiableList(_activityPatterns);
+    }
+
+    /**
+     * @param scriptFile droidbot script in JSON, see the script_samples of cat-droidbot
+     * @throws IOException when the file cannot be read
+     */
+    public static DroidbotScript read(File scriptFile) throws IOException {
+        JsonObject script;
+        try (JsonReader reader = Json.createReader(new FileReader(scriptFile))) {
+            script = reader.readObject();
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot parse droidbot script " + scriptFile + ": " + e.getMessage(), e);
+        }
+        return new DroidbotScript(scriptFile.getName(), selectors(script, "views", "resource_id"),
+                selectors(script, "states", "activity"));
+    }
+
+    /**
+     * @return patterns of the given selector key in the view or state definitions of the script
+     */
+    private static List<Pattern> selectors(JsonObject script, String definitionsKey, String selectorKey) {
+        List<Pattern> patterns = new ArrayList<>();
+        JsonObject definitions = script.getJsonObject(definitionsKey);
+        if (definitions == null) {
+            return patterns;
+        }
+        for (JsonValue definition: definitions.values()) {
+            String selector = ((JsonObject) definition).getString(selectorKey, null);
+            if (selector != null) {
+                patterns.add(Pattern.compile(selector));
+            }
+        }
+        return patterns;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Find the views whose resource name, e.g. com.example:id/email, matches a resource_id selector, and the
+     * activities whose class name or package/class component name matches an activity selector
+     * @param packageName package of the app, used to build the component names
+     * @return ids of the matching graph nodes
+     */
+    public BitSet findNodes(CompactCallGraph graph, String packageName) {
+        BitSet nodes = new BitSet();
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            String value = graph.getNodeValue(node);
+            switch (graph.getNodeType(node)) {
+                case SimplifiedCallGraphNode.NODE_TYPE_VIEW:
+                    if (matchesAny(resourceIDPatterns, value)) {
+                        nodes.set(node);
+                    }
+                    break;
+                case SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY:
+                    if (matchesAny(activityPatterns, value) || matchesAny(activityPatterns, packageName + "/" + value)) {
+                        nodes.set(node);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return nodes;
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String value) {
+        for (Pattern pattern: patterns) {
+            if (pattern.matcher(value).lookingAt()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + resourceIDPatterns.size() + " view selectors, " + activityPatterns.size() + " activity selectors)";
+    }
+}
@@ -0,0 +1,180 @@
+package androidgraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Backward closure over a CompactCallGraph, computed with an iterative Tarjan walk.
+ * The closure of a node is the set of nodes collected on its predecessors and, through the expanded predecessors,
+ * on everything reachable from them. Every node and edge is visited once; the nodes of one strongly connected
+ * component share the same closure, and closures are never modified once their component is finished.
+ * Collected nodes are numbered with dense ordinals in the order they are first met.
+ */
+class GraphClosure {
+    static final int IGNORE = 0;
+    static final int COLLECT = 1;
+    static final int EXPAND = 2;
+
+    /**
+     * Decides what to do with the edge from node to one of its predecessors
+     */
+    interface EdgeRule {
+        /**
+         * @return a combination of COLLECT and EXPAND, or IGNORE
+         */
+        int classify(int node, int predecessor);
+    }
+
+    private static final BitSet EMPTY = new BitSet(0);
+
+    private final CompactCallGraph graph;
+    private final EdgeRule rule;
+
+    private final int[] ordinals;
+    private int[] collectedNodes;
+    private int collectedCount;
+
+    private final int[] visitIndex;
+    private final int[] lowLink;
+    private final BitSet onStack;
+    private final BitSet[] closures;
+    private final BitSet[] pending;
+    private int visitCounter;
+    private int visitedCount;
+
+    private final int[] componentStack;
+    private int componentTop;
+    private final int[] frameNodes;
+    private final int[] frameCursors;
+
+    GraphClosure(CompactCallGraph _graph, EdgeRule _rule) {
+        this.graph = _graph;
+        this.rule = _rule;
+        int nodeCount = _graph.getNodeCount();
+        this.ordinals = new int[nodeCount];
+        Arrays.fill(ordinals, -1);
+        this.collectedNodes = new int[16];
+        this.visitIndex = new int[nodeCount];
+        Arrays.fill(visitIndex, -1);
+        this.lowLink = new int[nodeCount];
+        this.onStack = new BitSet(nodeCount);
+        this.closures = new BitSet[nodeCount];
+        this.pending = new BitSet[nodeCount];
+        this.componentStack = new int[nodeCount];
+        this.frameNodes = new int[nodeCount];
+        this.frameCursors = new int[nodeCount];
+    }
+
+    /**
+     * @return ordinals of the nodes collected from the given node, shared with the other nodes of its component
+     */
+    BitSet closureOf(int node) {
+        if (visitIndex[node] < 0) {
+            visit(node);
+        }
+        return closures[node];
+    }
+
+    boolean isVisited(int node) {
+        return visitIndex[node] >= 0;
+    }
+
+    /**
+     * @return number of nodes visited so far
+     */
+    int getVisitedCount() {
+        return visitedCount;
+    }
+
+    int getCollectedCount() {
+        return collectedCount;
+    }
+
+    /**
+     * @return id of the graph node with the given collected ordinal
+     */
+    int getCollectedNode(int ordinal) {
+        return collectedNodes[ordinal];
+    }
+
+    private int ordinalOf(int node) {
+        if (ordinals[node] < 0) {
+            if (collectedCount == collectedNodes.length) {
+                collectedNodes = Arrays.copyOf(collectedNodes, collectedCount * 2);
+            }
+            collectedNodes[collectedCount] = node;
+            ordinals[node] = collectedCount++;
+        }
+        return ordinals[node];
+    }
+
+    private void enter(int node, int frame) {
+        visitIndex[node] = lowLink[node] = visitCounter++;
+        visitedCount++;
+        componentStack[componentTop++] = node;
+        onStack.set(node);
+        pending[node] = new BitSet();
+        frameNodes[frame] = node;
+        frameCursors[frame] = graph.getPredecessorStart(node);
+    }
+
+    private void visit(int root) {
+        int frameTop = 0;
+        enter(root, frameTop++);
+        while (frameTop > 0) {
+            int node = frameNodes[frameTop - 1];
+            int cursor = frameCursors[frameTop - 1];
+            if (cursor < graph.getPredecessorEnd(node)) {
+                frameCursors[frameTop - 1]++;
+                int predecessor = graph.getPredecessor(cursor);
+                int action = rule.classify(node, predecessor);
+                if ((action & COLLECT) != 0) {
+                    pending[node].set(ordinalOf(predecessor));
+                }
+                if ((action & EXPAND) != 0) {
+                    if (visitIndex[predecessor] < 0) {
+                        enter(predecessor, frameTop++);
+                    } else if (onStack.get(predecessor)) {
+                        lowLink[node] = Math.min(lowLink[node], visitIndex[predecessor]);
+                    } else {
+                        pending[node].or(closures[predecessor]);
+                    }
+                }
+                continue;
+            }
+
+            frameTop--;
+            if (lowLink[node] == visitIndex[node]) {
+                finishComponent(node);
+            }
+            if (frameTop > 0) {
+                int parent = frameNodes[frameTop - 1];
+                lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                if (!onStack.get(node)) {
+                    pending[parent].or(closures[node]);
+                }
+            }
+        }
+    }
+
+    private void finishComponent(int root) {
+        int componentEnd = componentTop;
+        BitSet closure = pending[root];
+        int member;
+        do {
+            member = componentStack[--componentTop];
+            onStack.clear(member);
+            if (member != root) {
+                closure.or(pending[member]);
+            }
+        } while (member != root);
+
+        if (closure.isEmpty()) {
+            closure = EMPTY;
+        }
+        for (int i = componentTop; i < componentEnd; i++) {
+            closures[componentStack[i]] = closure;
+            pending[componentStack[i]] = null;
+        }
+    }
+}
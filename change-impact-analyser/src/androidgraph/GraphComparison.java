@@ -0,0 +1,280 @@
+package androidgraph;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Precision and recall of an approximate graph, e.g. of CallGraphMode.DEX_PRESCAN, against a reference graph of
+ * the same APK. Edges are matched by the types and values of their nodes and counted per kind of edge, and the
+ * views and activities traceBack reaches from a sample of the reference functions are compared as impact sets.
+ * <p>
+ * Usage: GraphComparison &lt;approximate output dir&gt; &lt;reference output dir&gt; &lt;report tsv&gt;
+ * <p>
+ * Both directories are BatchAnalysis outputs of the same APKs, e.g. with --mode DEX_PRESCAN and with the default
+ * mode. The report has one line per APK analysed in both, with the analysis times of both summaries.
+ */
+public final class GraphComparison {
+    private static final int IMPACT_SAMPLE_SIZE = 1000;
+    private static final int[] IMPACT_TYPES = {SimplifiedCallGraphNode.NODE_TYPE_VIEW, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY};
+    private static final String[] EDGE_KINDS = {"function-function", "activity-function", "activity-view",
+            "activity-layout", "layout-view", "layout-layout"};
+
+    // Common, approximate-only and reference-only counts, by edge kind
+    private final Map<String, long[]> edgeCounts = new LinkedHashMap<>();
+    // Common, approximate-only and reference-only nodes of the impact sets, by IMPACT_TYPES index
+    private final long[][] impactCounts = new long[IMPACT_TYPES.length][3];
+    private int sampledFunctions;
+    private int missingFunctions;
+
+    private GraphComparison() {
+        for (String kind: EDGE_KINDS) {
+            edgeCounts.put(kind, new long[3]);
+        }
+    }
+
+    /**
+     * @param approximate compacted graph to evaluate
+     * @param reference compacted graph taken as the truth
+     */
+    public static GraphComparison compare(CompactCallGraph approximate, CompactCallGraph reference) {
+        GraphComparison comparison = new GraphComparison();
+        Set<String> referenceEdges = edgeKeys(reference);
+        for (String edge: edgeKeys(approximate)) {
+            comparison.count(edge, referenceEdges.remove(edge) ? 0 : 1);
+        }
+        for (String edge: referenceEdges) {
+            comparison.count(edge, 2);
+        }
+        comparison.compareImpact(approximate, reference);
+        return comparison;
+    }
+
+    /**
+     * @return one key per edge, the kind of the edge followed by the values of its source and destination
+     */
+    private static Set<String> edgeKeys(CompactCallGraph graph) {
+        Set<String> keys = new HashSet<>(graph.getEdgeCount() * 2);
+        for (int dest = 0; dest < graph.getNodeCount(); dest++) {
+            for (int i = graph.getPredecessorStart(dest); i < graph.getPredecessorEnd(dest); i++) {
+                int src = graph.getPredecessor(i);
+                keys.add(SimplifiedCallGraphNode.typeName(graph.getNodeType(src)) + "-"
+                        + SimplifiedCallGraphNode.typeName(graph.getNodeType(dest)) + "\t"
+                        + graph.getNodeValue(src) + "\t" + graph.getNodeValue(dest));
+            }
+        }
+        return keys;
+    }
+
+    private void count(String edge, int column) {
+        String kind = edge.substring(0, edge.indexOf('\t'));
+        edgeCounts.computeIfAbsent(kind, k -> new long[3])[column]++;
+    }
+
+    /**
+     * Compare the impact sets of evenly spaced reference functions. A function missing from the approximate graph
+     * has an empty impact set there
+     */
+    private void compareImpact(CompactCallGraph approximate, CompactCallGraph reference) {
+        int functionCount = 0;
+        for (int node = 0; node < reference.getNodeCount(); node++) {
+            if (reference.getNodeType(node) == SimplifiedCallGraphNode.NODE_TYPE_FUNCTION) {
+                functionCount++;
+            }
+        }
+        int stride = Math.max(1, functionCount / IMPACT_SAMPLE_SIZE);
+        int function = 0;
+        for (int node = 0; node < reference.getNodeCount(); node++) {
+            if (reference.getNodeType(node) != SimplifiedCallGraphNode.NODE_TYPE_FUNCTION || function++ % stride != 0) {
+                continue;
+            }
+            sampledFunctions++;
+            int approximateNode = approximate.findNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, reference.getNodeValue(node));
+            if (approximateNode < 0) {
+                missingFunctions++;
+            }
+            for (int t = 0; t < IMPACT_TYPES.length; t++) {
+                Set<String> referenceImpact = values(reference, reference.traceBack(node, IMPACT_TYPES[t]));
+                Set<String> approximateImpact = approximateNode < 0 ? new HashSet<>()
+                        : values(approximate, approximate.traceBack(approximateNode, IMPACT_TYPES[t]));
+                for (String value: approximateImpact) {
+                    impactCounts[t][referenceImpact.remove(value) ? 0 : 1]++;
+                }
+                impactCounts[t][2] += referenceImpact.size();
+            }
+        }
+    }
+
+    private static Set<String> values(CompactCallGraph graph, BitSet nodes) {
+        Set<String> values = new HashSet<>();
+        for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+            values.add(graph.getNodeValue(node));
+        }
+        return values;
+    }
+
+    private static double precision(long[] counts) {
+        return counts[0] + counts[1] == 0 ? 1 : (double) counts[0] / (counts[0] + counts[1]);
+    }
+
+    private static double recall(long[] counts) {
+        return counts[0] + counts[2] == 0 ? 1 : (double) counts[0] / (counts[0] + counts[2]);
+    }
+
+    /**
+     * @param kind kind of edge, source type then destination type, e.g. activity-view
+     * @return share of the approximate edges of that kind which are in the reference graph, 1 if there are none
+     */
+    public double getEdgePrecision(String kind) {
+        return precision(edgeCounts.getOrDefault(kind, new long[3]));
+    }
+
+    /**
+     * @return share of the reference edges of that kind which are in the approximate graph, 1 if there are none
+     */
+    public double getEdgeRecall(String kind) {
+        return recall(edgeCounts.getOrDefault(kind, new long[3]));
+    }
+
+    private long[] totalEdgeCounts() {
+        long[] total = new long[3];
+        for (long[] counts: edgeCounts.values()) {
+            for (int i = 0; i < total.length; i++) {
+                total[i] += counts[i];
+            }
+        }
+        return total;
+    }
+
+    public double getEdgePrecision() {
+        return precision(totalEdgeCounts());
+    }
+
+    public double getEdgeRecall() {
+        return recall(totalEdgeCounts());
+    }
+
+    /**
+     * @param nodeType NODE_TYPE_VIEW or NODE_TYPE_ACTIVITY
+     * @return share of the nodes in the approximate impact sets of the sampled functions which are also in the
+     * reference impact sets, summed over the sample
+     */
+    public double getImpactPrecision(int nodeType) {
+        return precision(impactCounts[impactTypeIndex(nodeType)]);
+    }
+
+    public double getImpactRecall(int nodeType) {
+        return recall(impactCounts[impactTypeIndex(nodeType)]);
+    }
+
+    private static int impactTypeIndex(int nodeType) {
+        for (int t = 0; t < IMPACT_TYPES.length; t++) {
+            if (IMPACT_TYPES[t] == nodeType) {
+                return t;
+            }
+        }
+        throw new IllegalArgumentException("Impact sets are only compared for views and activities");
+    }
+
+    /**
+     * @return number of reference functions whose impact sets were compared
+     */
+    public int getSampledFunctions() {
+        return sampledFunctions;
+    }
+
+    /**
+     * @return number of sampled functions without a node in the approximate graph
+     */
+    public int getMissingFunctions() {
+        return missingFunctions;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format(Locale.ROOT, "edges P %.3f R %.3f", getEdgePrecision(), getEdgeRecall()));
+        for (Map.Entry<String, long[]> entry: edgeCounts.entrySet()) {
+            builder.append(String.format(Locale.ROOT, ", %s P %.3f R %.3f", entry.getKey(), precision(entry.getValue()), recall(entry.getValue())));
+        }
+        for (int t = 0; t < IMPACT_TYPES.length; t++) {
+            builder.append(String.format(Locale.ROOT, ", %s impact P %.3f R %.3f", SimplifiedCallGraphNode.typeName(IMPACT_TYPES[t]),
+                    precision(impactCounts[t]), recall(impactCounts[t])));
+        }
+        return builder.append(" over ").append(sampledFunctions).append(" functions, ").append(missingFunctions)
+                .append(" missing").toString();
+    }
+
+    /**
+     * @return analysis seconds by app name, from the summary of a BatchAnalysis output directory
+     */
+    private static Map<String, String> readSummarySeconds(File outputDirectory) throws IOException {
+        Map<String, String> seconds = new HashMap<>();
+        List<String> lines = Files.readAllLines(new File(outputDirectory, "summary.tsv").toPath(), StandardCharsets.UTF_8);
+        for (String line: lines.subList(1, lines.size())) {
+            String[] columns = line.split("\t", -1);
+            if (columns.length > 2 && columns[1].equals("OK")) {
+                seconds.put(columns[0], columns[2]);
+            }
+        }
+        return seconds;
+    }
+
+    private static CompactCallGraph readGraph(File graphFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(graphFile), 1 << 16))) {
+            return GraphExporter.readBinary(in);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: GraphComparison <approximate output dir> <reference output dir> <report tsv>");
+            System.exit(2);
+        }
+        File approximateDirectory = new File(args[0]);
+        File referenceDirectory = new File(args[1]);
+        Map<String, String> approximateSeconds = readSummarySeconds(approximateDirectory);
+        Map<String, String> referenceSeconds = readSummarySeconds(referenceDirectory);
+        try (PrintWriter report = new PrintWriter(new File(args[2]), StandardCharsets.UTF_8)) {
+            StringBuilder header = new StringBuilder("app\tapproximateSeconds\treferenceSeconds\tedgePrecision\tedgeRecall");
+            for (String kind: EDGE_KINDS) {
+                header.append('\t').append(kind).append("Precision\t").append(kind).append("Recall");
+            }
+            report.println(header.append("\tviewImpactPrecision\tviewImpactRecall\tactivityImpactPrecision\tactivityImpactRecall")
+                    .append("\tsampledFunctions\tmissingFunctions"));
+            for (String appName: approximateSeconds.keySet().stream().sorted().toArray(String[]::new)) {
+                if (!referenceSeconds.containsKey(appName)) {
+                    continue;
+                }
+                GraphComparison comparison = compare(
+                        readGraph(new File(approximateDirectory, appName + AnalysisWorker.GRAPH_EXTENSION)),
+                        readGraph(new File(referenceDirectory, appName + AnalysisWorker.GRAPH_EXTENSION)));
+                StringBuilder line = new StringBuilder(appName).append('\t').append(approximateSeconds.get(appName))
+                        .append('\t').append(referenceSeconds.get(appName))
+                        .append(String.format(Locale.ROOT, "\t%.4f\t%.4f", comparison.getEdgePrecision(), comparison.getEdgeRecall()));
+                for (String kind: EDGE_KINDS) {
+                    line.append(String.format(Locale.ROOT, "\t%.4f\t%.4f", comparison.getEdgePrecision(kind), comparison.getEdgeRecall(kind)));
+                }
+                for (int nodeType: IMPACT_TYPES) {
+                    line.append(String.format(Locale.ROOT, "\t%.4f\t%.4f", comparison.getImpactPrecision(nodeType),
+                            comparison.getImpactRecall(nodeType)));
+                }
+                report.println(line.append('\t').append(comparison.getSampledFunctions())
+                        .append('\t').append(comparison.getMissingFunctions()));
+                System.out.println(appName + ": " + comparison);
+            }
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package androidgraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Condensed copy of a compacted CompactCallGraph with fewer function nodes and the same reachability to views,
+ * layouts and activities.
+ * <p>
+ * Every strongly connected component of functions, found with an iterative Tarjan walk over the function to function
+ * edges, becomes its member with the smallest id. Then every function outside the app code whose only caller is
+ * one other function, itself called from somewhere, is merged into that caller: such a pass-through method reaches
+ * exactly what its caller reaches. Merged methods are aliases of their node, so findNode still finds them.
+ * <p>
+ * traceBack to views, layouts and activities, and ChangeImpact, give the same nodes as on the original graph.
+ * Callers of a function (traceBack to functions) are not preserved.
+ */
+public final class GraphCondenser {
+    private static final int[] QUERY_TYPES = {SimplifiedCallGraphNode.NODE_TYPE_VIEW, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY};
+
+    private final CompactCallGraph graph;
+    private final int originalNodeCount;
+    private final int originalEdgeCount;
+    private final int cyclicComponentCount;
+    private final int mergedMethodCount;
+    private final int collapsedMethodCount;
+    private final long condenseTimeMillis;
+    private long originalQueryNanos = -1;
+    private long condensedQueryNanos = -1;
+
+    private GraphCondenser(CompactCallGraph _graph, int _originalNodeCount, int _originalEdgeCount,
+                           int _cyclicComponentCount, int _mergedMethodCount, int _collapsedMethodCount,
+                           long _condenseTimeMillis) {
+        this.graph = _graph;
+        this.originalNodeCount = _originalNodeCount;
+        this.originalEdgeCount = _originalEdgeCount;
+        this.cyclicComponentCount = _cyclicComponentCount;
+        this.mergedMethodCount = _mergedMethodCount;
+        this.collapsedMethodCount = _collapsedMethodCount;
+        this.condenseTimeMillis = _condenseTimeMillis;
+    }
+
+    /**
+     * @param original compacted graph, left unchanged
+     * @param appCode classes of the app, whose methods are never collapsed into their caller
+     */
+    static GraphCondenser condense(CompactCallGraph original, PackageFilter appCode) {
+        long startTime = System.currentTimeMillis();
+        int nodeCount = original.getNodeCount();
+
+        // Strongly connected components of functions, each represented by its smallest member
+        int[] representatives = new int[nodeCount];
+        int cyclicComponentCount = findComponents(original, representatives);
+
+        // A component is app code if any of its members is
+        BitSet appComponents = new BitSet(nodeCount);
+        int mergedMethodCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (original.getNodeType(node) != SimplifiedCallGraphNode.NODE_TYPE_FUNCTION) {
+                continue;
+            }
+            if (representatives[node] != node) {
+                mergedMethodCount++;
+            }
+            if (appCode.accepts(DexMethodScanner.getClassOfSignature(original.getNodeValue(node)))) {
+                appComponents.set(representatives[node]);
+            }
+        }
+
+        CompactCallGraph components = new CompactCallGraph();
+        int[] componentIds = new int[nodeCount];
+        int[] componentNodes = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            if (representatives[node] == node) {
+                componentIds[node] = components.internNode(original.getNodeType(node), original.getNodeValue(node));
+                componentNodes[componentIds[node]] = node;
+            }
+        }
+        // Edges inside a component become a self loop, so that its methods still have predecessors
+        for (int dest = 0; dest < nodeCount; dest++) {
+            for (int i = original.getPredecessorStart(dest); i < original.getPredecessorEnd(dest); i++) {
+                components.addEdge(componentIds[representatives[dest]], componentIds[representatives[original.getPredecessor(i)]]);
+            }
+        }
+        components.compact();
+
+        // Pass-through functions outside the app code, resolved to the first node that is kept
+        int componentCount = components.getNodeCount();
+        int[] targets = new int[componentCount];
+        int collapsedMethodCount = 0;
+        for (int node = 0; node < componentCount; node++) {
+            targets[node] = node;
+            int caller = components.getNodeType(node) == SimplifiedCallGraphNode.NODE_TYPE_FUNCTION
+                    && !appComponents.get(componentNodes[node])
+                    ? singleCaller(components, node) : -1;
+            if (caller >= 0 && components.hasPredecessors(caller)) {
+                targets[node] = caller;
+                collapsedMethodCount++;
+            }
+        }
+        for (int node = 0; node < componentCount; node++) {
+            resolve(targets, node);
+        }
+
+        CompactCallGraph condensed = new CompactCallGraph();
+        int[] condensedIds = new int[componentCount];
+        for (int node = 0; node < componentCount; node++) {
+            if (targets[node] == node) {
+                condensedIds[node] = condensed.internNode(components.getNodeType(node), components.getNodeValue(node));
+            }
+        }
+        for (int dest = 0; dest < componentCount; dest++) {
+            if (targets[dest] != dest) {
+                continue;
+            }
+            for (int i = components.getPredecessorStart(dest); i < components.getPredecessorEnd(dest); i++) {
+                condensed.addEdge(condensedIds[dest], condensedIds[targets[components.getPredecessor(i)]]);
+            }
+        }
+        condensed.compact();
+        for (int node = 0; node < nodeCount; node++) {
+            int condensedNode = condensedIds[targets[componentIds[representatives[node]]]];
+            if (!condensed.getNodeValue(condensedNode).equals(original.getNodeValue(node))) {
+                condensed.addAlias(original.getNodeType(node), original.getNodeValue(node), condensedNode);
+            }
+        }
+        return new GraphCondenser(condensed, nodeCount, original.getEdgeCount(), cyclicComponentCount,
+                mergedMethodCount, collapsedMethodCount, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Iterative Tarjan walk over the function to function edges. Nodes that are not functions are their own component
+     * @param representatives set to the smallest node of the component of each node
+     * @return number of components with more than one node
+     */
+    private static int findComponents(CompactCallGraph graph, int[] representatives) {
+        int nodeCount = graph.getNodeCount();
+        int[] visitIndex = new int[nodeCount];
+        Arrays.fill(visitIndex, -1);
+        int[] lowLink = new int[nodeCount];
+        BitSet onStack = new BitSet(nodeCount);
+        int[] componentStack = new int[nodeCount];
+        int componentTop = 0;
+        int[] frameNodes = new int[nodeCount];
+        int[] frameCursors = new int[nodeCount];
+        int visitCounter = 0;
+        int cyclicComponentCount = 0;
+
+        for (int node = 0; node < nodeCount; node++) {
+            representatives[node] = node;
+        }
+        for (int root = 0; root < nodeCount; root++) {
+            if (visitIndex[root] >= 0 || graph.getNodeType(root) != SimplifiedCallGraphNode.NODE_TYPE_FUNCTION) {
+                continue;
+            }
+            int frameTop = 0;
+            frameNodes[frameTop] = root;
+            frameCursors[frameTop++] = graph.getPredecessorStart(root);
+            visitIndex[root] = lowLink[root] = visitCounter++;
+            componentStack[componentTop++] = root;
+            onStack.set(root);
+            while (frameTop > 0) {
+                int node = frameNodes[frameTop - 1];
+                if (frameCursors[frameTop - 1] < graph.getPredecessorEnd(node)) {
+                    int predecessor = graph.getPredecessor(frameCursors[frameTop - 1]++);
+                    if (graph.getNodeType(predecessor) != SimplifiedCallGraphNode.NODE_TYPE_FUNCTION) {
+                        continue;
+                    }
+                    if (visitIndex[predecessor] < 0) {
+                        visitIndex[predecessor] = lowLink[predecessor] = visitCounter++;
+                        componentStack[componentTop++] = predecessor;
+                        onStack.set(predecessor);
+                        frameNodes[frameTop] = predecessor;
+                        frameCursors[frameTop++] = graph.getPredecessorStart(predecessor);
+                    } else if (onStack.get(predecessor)) {
+                        lowLink[node] = Math.min(lowLink[node], visitIndex[predecessor]);
+                    }
+                    continue;
+                }
+                frameTop--;
+                if (frameTop > 0) {
+                    int parent = frameNodes[frameTop - 1];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                }
+                if (lowLink[node] != visitIndex[node]) {
+                    continue;
+                }
+                int bottom = componentTop - 1;
+                while (componentStack[bottom] != node) {
+                    bottom--;
+                }
+                int representative = node;
+                for (int i = bottom; i < componentTop; i++) {
+                    representative = Math.min(representative, componentStack[i]);
+                }
+                for (int i = bottom; i < componentTop; i++) {
+                    representatives[componentStack[i]] = representative;
+                    onStack.clear(componentStack[i]);
+                }
+                if (componentTop - bottom > 1) {
+                    cyclicComponentCount++;
+                }
+                componentTop = bottom;
+            }
+        }
+        return cyclicComponentCount;
+    }
+
+    /**
+     * @return the only predecessor of node apart from itself if it is a function, -1 otherwise
+     */
+    private static int singleCaller(CompactCallGraph graph, int node) {
+        int caller = -1;
+        for (int i = graph.getPredecessorStart(node); i < graph.getPredecessorEnd(node); i++) {
+            int predecessor = graph.getPredecessor(i);
+            if (predecessor == node) {
+                continue;
+            }
+            if (caller >= 0 || graph.getNodeType(predecessor) != SimplifiedCallGraphNode.NODE_TYPE_FUNCTION) {
+                return -1;
+            }
+            caller = predecessor;
+        }
+        return caller;
+    }
+
+    private static int resolve(int[] targets, int node) {
+        int target = node;
+        while (targets[target] != target) {
+            target = targets[target];
+        }
+        while (targets[node] != target) {
+            int next = targets[node];
+            targets[node] = target;
+            node = next;
+        }
+        return target;
+    }
+
+    /**
+     * Time traceBack to views and to activities from a sample of the original function nodes, on the original and on
+     * the condensed graph, checking that both give the same nodes
+     * @param original graph given to condense()
+     * @param sampleSize maximum number of function nodes queried, spread over the graph
+     */
+    void measureQuerySpeedup(CompactCallGraph original, int sampleSize) {
+        int[] sample = new int[sampleSize];
+        int sampled = 0;
+        int functionCount = 0;
+        for (int node = 0; node < original.getNodeCount(); node++) {
+            if (original.getNodeType(node) == SimplifiedCallGraphNode.NODE_TYPE_FUNCTION && original.hasPredecessors(node)) {
+                functionCount++;
+            }
+        }
+        int stride = Math.max(1, functionCount / sampleSize);
+        int seen = 0;
+        for (int node = 0; node < original.getNodeCount() && sampled < sampleSize; node++) {
+            if (original.getNodeType(node) == SimplifiedCallGraphNode.NODE_TYPE_FUNCTION && original.hasPredecessors(node)
+                    && seen++ % stride == 0) {
+                sample[sampled++] = node;
+            }
+        }
+        int[] condensedSample = new int[sampled];
+        for (int i = 0; i < sampled; i++) {
+            condensedSample[i] = graph.findNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, original.getNodeValue(sample[i]));
+        }
+
+        BitSet[] originalResults = new BitSet[sampled * QUERY_TYPES.length];
+        BitSet[] condensedResults = new BitSet[sampled * QUERY_TYPES.length];
+        // The first round warms up traceBack, so that neither graph is measured with interpreted code
+        timeQueries(original, sample, sampled, originalResults);
+        timeQueries(graph, condensedSample, sampled, condensedResults);
+        this.originalQueryNanos = timeQueries(original, sample, sampled, originalResults);
+        this.condensedQueryNanos = timeQueries(graph, condensedSample, sampled, condensedResults);
+
+        for (int i = 0; i < originalResults.length; i++) {
+            BitSet originalResult = originalResults[i];
+            BitSet condensedResult = condensedResults[i];
+            boolean same = originalResult.cardinality() == condensedResult.cardinality();
+            for (int node = originalResult.nextSetBit(0); same && node >= 0; node = originalResult.nextSetBit(node + 1)) {
+                int condensedNode = graph.findNode(original.getNodeType(node), original.getNodeValue(node));
+                same = condensedNode >= 0 && condensedResult.get(condensedNode);
+            }
+            if (!same) {
+                throw new IllegalStateException("Condensed graph changes the reachability of " +
+                        original.getNode(sample[i / QUERY_TYPES.length]));
+            }
+        }
+    }
+
+    private static long timeQueries(CompactCallGraph graph, int[] nodes, int nodeCount, BitSet[] results) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < nodeCount; i++) {
+            for (int t = 0; t < QUERY_TYPES.length; t++) {
+                results[i * QUERY_TYPES.length + t] = graph.traceBack(nodes[i], QUERY_TYPES[t]);
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * @return the condensed graph, with the merged methods as aliases
+     */
+    CompactCallGraph getGraph() {
+        return graph;
+    }
+
+    public int getOriginalNodeCount() {
+        return originalNodeCount;
+    }
+
+    public int getOriginalEdgeCount() {
+        return originalEdgeCount;
+    }
+
+    public int getNodeCount() {
+        return graph.getNodeCount();
+    }
+
+    public int getEdgeCount() {
+        return graph.getEdgeCount();
+    }
+
+    /**
+     * @return number of strongly connected components of more than one function
+     */
+    public int getCyclicComponentCount() {
+        return cyclicComponentCount;
+    }
+
+    /**
+     * @return number of methods merged into another method of their strongly connected component
+     */
+    public int getMergedMethodCount() {
+        return mergedMethodCount;
+    }
+
+    /**
+     * @return number of pass-through components merged into their caller
+     */
+    public int getCollapsedMethodCount() {
+        return collapsedMethodCount;
+    }
+
+    public long getCondenseTimeMillis() {
+        return condenseTimeMillis;
+    }
+
+    /**
+     * @return time of the sampled queries on the original graph, -1 if not measured
+     */
+    public long getOriginalQueryNanos() {
+        return originalQueryNanos;
+    }
+
+    /**
+     * @return time of the sampled queries on the condensed graph, -1 if not measured
+     */
+    public long getCondensedQueryNanos() {
+        return condensedQueryNanos;
+    }
+
+    /**
+     * @return how many times faster the sampled queries are on the condensed graph, NaN if not measured
+     */
+    public double getQuerySpeedup() {
+        return condensedQueryNanos > 0 ? (double) originalQueryNanos / condensedQueryNanos : Double.NaN;
+    }
+
+    @Override
+    public String toString() {
+        String _string = originalNodeCount + " -> " + getNodeCount() + " nodes, " + originalEdgeCount + " -> " +
+                getEdgeCount() + " edges (" + cyclicComponentCount + " cycles merging " + mergedMethodCount +
+                " methods, " + collapsedMethodCount + " pass-through methods collapsed) in " + condenseTimeMillis + " ms";
+        if (condensedQueryNanos > 0) {
+            _string += String.format(", queries %.2fx faster", getQuerySpeedup());
+        }
+        return _string;
+    }
+}
@@ -0,0 +1,185 @@
+package androidgraph;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming export and import of a compacted CompactCallGraph.
+ * Both formats list the nodes (id, type and value) and then the edges from source to target, e.g. from a caller to
+ * its callee or from a layout to one of its views. Nodes and edges are written straight from the CSR arrays and read
+ * back one at a time, so memory use does not depend on the size of the file.
+ * <p>
+ * JSON: {"nodes": [{"id": 0, "type": "function", "value": "..."}, ...], "edges": [{"source": 1, "target": 0}, ...]}
+ * <p>
+ * Binary: magic, version, node count, then per node a type byte and a length-prefixed UTF-8 value,
+ * then the edge count and per edge the source and target ids, all big-endian.
+ */
+public final class GraphExporter {
+    private static final int BINARY_MAGIC = 0x43415445; // "CATE"
+    private static final int BINARY_VERSION = 1;
+
+    private GraphExporter() {
+    }
+
+    public static void writeJson(CompactCallGraph graph, Writer writer) {
+        try (JsonGenerator generator = Json.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStartArray("nodes");
+            for (int node = 0; node < graph.getNodeCount(); node++) {
+                generator.writeStartObject()
+                        .write("id", node)
+                        .write("type", SimplifiedCallGraphNode.typeName(graph.getNodeType(node)))
+                        .write("value", graph.getNodeValue(node))
+                        .writeEnd();
+            }
+            generator.writeEnd();
+            generator.writeStartArray("edges");
+            for (int target = 0; target < graph.getNodeCount(); target++) {
+                for (int i = graph.getPredecessorStart(target); i < graph.getPredecessorEnd(target); i++) {
+                    generator.writeStartObject()
+                            .write("source", graph.getPredecessor(i))
+                            .write("target", target)
+                            .writeEnd();
+                }
+            }
+            generator.writeEnd();
+            generator.writeEnd();
+        }
+    }
+
+    /**
+     * Read a graph written by {@link #writeJson(CompactCallGraph, Writer)}
+     * @return the compacted graph
+     */
+    public static CompactCallGraph readJson(Reader reader) {
+        CompactCallGraph graph = new CompactCallGraph();
+        NodeIdMap nodeIds = new NodeIdMap();
+        try (JsonParser parser = Json.createParser(reader)) {
+            int depth = 0;
+            String section = null;
+            String key = null;
+            int id = -1;
+            int nodeType = 0;
+            String value = null;
+            int source = -1;
+            int target = -1;
+            while (parser.hasNext()) {
+                switch (parser.next()) {
+                    case START_OBJECT:
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                        depth--;
+                        if (depth == 1 && "nodes".equals(section)) {
+                            nodeIds.put(id, graph.internNode(nodeType, value));
+                        } else if (depth == 1 && "edges".equals(section)) {
+                            graph.addEdge(nodeIds.get(target), nodeIds.get(source));
+                        }
+                        break;
+                    case KEY_NAME:
+                        key = parser.getString();
+                        if (depth == 1) {
+                            section = key;
+                        }
+                        break;
+                    case VALUE_NUMBER:
+                        if ("id".equals(key)) {
+                            id = parser.getInt();
+                        } else if ("source".equals(key)) {
+                            source = parser.getInt();
+                        } else if ("target".equals(key)) {
+                            target = parser.getInt();
+                        }
+                        break;
+                    case VALUE_STRING:
+                        if ("type".equals(key)) {
+                            nodeType = SimplifiedCallGraphNode.parseTypeName(parser.getString());
+                        } else if ("value".equals(key)) {
+                            value = parser.getString();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        graph.compact();
+        return graph;
+    }
+
+    public static void writeBinary(CompactCallGraph graph, DataOutputStream out) throws IOException {
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(graph.getNodeCount());
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            out.writeByte(graph.getNodeType(node));
+            BinaryIO.writeString(out, graph.getNodeValue(node));
+        }
+        out.writeInt(graph.getEdgeCount());
+        for (int target = 0; target < graph.getNodeCount(); target++) {
+            for (int i = graph.getPredecessorStart(target); i < graph.getPredecessorEnd(target); i++) {
+                out.writeInt(graph.getPredecessor(i));
+                out.writeInt(target);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Read a graph written by {@link #writeBinary(CompactCallGraph, DataOutputStream)}
+     * @return the compacted graph
+     * @throws IOException when the stream cannot be read or is not in the binary graph format
+     */
+    public static CompactCallGraph readBinary(DataInputStream in) throws IOException {
+        if (in.readInt() != BINARY_MAGIC || in.readInt() != BINARY_VERSION) {
+            throw new IOException("Not a binary call graph file");
+        }
+        CompactCallGraph graph = new CompactCallGraph();
+        int nodeCount = in.readInt();
+        int[] nodeIds = new int[nodeCount];
+        byte[] buffer = new byte[256];
+        for (int node = 0; node < nodeCount; node++) {
+            int nodeType = in.readByte();
+            int length = in.readInt();
+            if (length > buffer.length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            in.readFully(buffer, 0, length);
+            nodeIds[node] = graph.internNode(nodeType, new String(buffer, 0, length, StandardCharsets.UTF_8));
+        }
+        int edgeCount = in.readInt();
+        for (int i = 0; i < edgeCount; i++) {
+            int source = in.readInt();
+            int target = in.readInt();
+            graph.addEdge(nodeIds[target], nodeIds[source]);
+        }
+        graph.compact();
+        return graph;
+    }
+
+    /**
+     * Growable map from the node ids of a JSON file to graph ids
+     */
+    private static class NodeIdMap {
+        private int[] graphIds = new int[1024];
+
+        void put(int fileId, int graphId) {
+            if (fileId >= graphIds.length) {
+                graphIds = Arrays.copyOf(graphIds, Math.max(fileId + 1, graphIds.length * 2));
+            }
+            graphIds[fileId] = graphId;
+        }
+
+        int get(int fileId) {
+            return graphIds[fileId];
+        }
+    }
+}
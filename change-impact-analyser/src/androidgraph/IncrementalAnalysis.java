@@ -0,0 +1,93 @@
+package androidgraph;
+
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+
+import java.util.Set;
+
+/**
+ * Derives the simplified call graph of a new APK version from the graph of the previous version.
+ * Edges that do not depend on changed code are copied, and only the classes declaring added, removed or modified
+ * methods are re-read from the dex files of the new version.
+ */
+final class IncrementalAnalysis {
+    private IncrementalAnalysis() {
+    }
+
+    /**
+     * @param previousGraph compacted graph of the previous version
+     * @param apkDiff method changes between the two versions
+     * @param currentVersion dex files of the new version
+     * @param appInfo resource IDs of the new version
+     * @return graph of the new version, without the edges of the new layout files; the edges of the previous layout
+     * files are not copied
+     */
+    static CompactCallGraph patch(CompactCallGraph previousGraph, ApkDiff apkDiff, DexMethodScanner currentVersion, AppInfo appInfo) {
+        Set<String> changedClasses = apkDiff.getChangedClasses();
+        CompactCallGraph graph = new CompactCallGraph();
+        for (int dest = 0; dest < previousGraph.getNodeCount(); dest++) {
+            int destType = previousGraph.getNodeType(dest);
+            String destValue = previousGraph.getNodeValue(dest);
+            if (destType == SimplifiedCallGraphNode.NODE_TYPE_FUNCTION && apkDiff.isRemoved(destValue)) {
+                continue;
+            }
+            for (int i = previousGraph.getPredecessorStart(dest); i < previousGraph.getPredecessorEnd(dest); i++) {
+                int src = previousGraph.getPredecessor(i);
+                int srcType = previousGraph.getNodeType(src);
+                String srcValue = previousGraph.getNodeValue(src);
+                if (srcType == SimplifiedCallGraphNode.NODE_TYPE_LAYOUT) {
+                    // Views and included layouts of the layout files are added from the new layouts
+                    continue;
+                }
+                if (srcType == SimplifiedCallGraphNode.NODE_TYPE_FUNCTION && apkDiff.isRewritten(srcValue)) {
+                    // Calls made by a changed body are rebuilt below
+                    continue;
+                }
+                if (srcType == SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY && destType != SimplifiedCallGraphNode.NODE_TYPE_FUNCTION
+                        && changedClasses.contains(srcValue)) {
+                    // Views and layouts looked up by a changed class are rebuilt below
+                    continue;
+                }
+                graph.addEdge(graph.internNode(destType, destValue), graph.internNode(srcType, srcValue));
+            }
+        }
+
+        for (String className: changedClasses) {
+            ClassDef classDef = currentVersion.getClass(className);
+            if (classDef == null) {
+                continue;
+            }
+            boolean isActivity = (currentVersion.getComponentKinds(className) & ComponentClassifier.KIND_ACTIVITY) != 0;
+            for (Method method: classDef.getMethods()) {
+                String signature = DexMethodScanner.toSootSignature(className, method);
+                int functionNode = graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, signature);
+                if (isActivity) {
+                    graph.addEdge(functionNode, graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, className));
+                }
+                boolean rebuildCalls = apkDiff.isRewritten(signature) || apkDiff.getAddedMethods().contains(signature);
+                currentVersion.scanInvokes(method, (callee, calleeName, hasConstantArgument, constantArgument) -> {
+                    if (rebuildCalls) {
+                        graph.addEdge(graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, callee), functionNode);
+                    }
+                    if (!hasConstantArgument) {
+                        return;
+                    }
+                    int resourceType;
+                    if (calleeName.equals("findViewById")) {
+                        resourceType = SimplifiedCallGraphNode.NODE_TYPE_VIEW;
+                    } else if (calleeName.equals("setContentView")) {
+                        resourceType = SimplifiedCallGraphNode.NODE_TYPE_LAYOUT;
+                    } else {
+                        return;
+                    }
+                    String resourceName = appInfo.getResourceIDStr(constantArgument);
+                    if (resourceName != null) {
+                        graph.addEdge(graph.internNode(resourceType, resourceName),
+                                graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY, className));
+                    }
+                });
+            }
+        }
+        return graph;
+    }
+}
@@ -0,0 +1,549 @@
+package androidgraph;
+
+import soot.jimple.infoflow.android.axml.AXmlAttribute;
+import soot.jimple.infoflow.android.axml.AXmlBooleanAttribute;
+import soot.jimple.infoflow.android.axml.AXmlIntegerAttribute;
+import soot.jimple.infoflow.android.axml.AXmlNode;
+import soot.jimple.infoflow.android.axml.AXmlStringAttribute;
+import soot.jimple.infoflow.android.resources.controls.AndroidLayoutControl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of the binary layout XML files of an APK, replacing the single-threaded FlowDroid LayoutFileParser.
+ * The APK is memory-mapped and its zip directory read in place; stored entries are parsed straight from the
+ * mapping and deflated entries are inflated from it into a buffer reused by each worker thread.
+ * Like FlowDroid, every element other than include, merge and fragment is a control of its layout file, and
+ * include elements add the layout file referenced by their layout attribute. The attributes of the controls are
+ * kept, so that the view controls can be created the way the FlowDroid parser creates them.
+ */
+public class LayoutScanner {
+    private static final int ZIP_END_OF_DIRECTORY = 0x06054b50;
+    private static final int ZIP_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int ZIP_LOCAL_HEADER = 0x04034b50;
+    private static final int ZIP_STORED = 0;
+    private static final int ZIP_DEFLATED = 8;
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+    private static final int STRING_POOL_UTF8_FLAG = 0x100;
+    private static final int TYPE_REFERENCE = 0x01;
+    private static final int TYPE_STRING = 0x03;
+    private static final int TYPE_INT_BOOLEAN = 0x12;
+    private static final int TYPE_INT_HEX = 0x11;
+    private static final int ANDROID_ATTR_ID = 0x010100d0;
+
+    private final File apkFile;
+    private final int parallelism;
+    private final List<String> layoutFiles = new ArrayList<>();
+    private LayoutFacts[] layoutFacts = new LayoutFacts[0];
+    private long scanNanos;
+
+    /**
+     * Creates the control object of a view element
+     */
+    public interface ControlFactory {
+        /**
+         * @param tag element name, which isViewTag accepted
+         * @param element the element and its attributes, as the FlowDroid layout parser reads them
+         * @return control of the element, or null to leave it out of the view table
+         */
+        AndroidLayoutControl createControl(String layoutFile, String tag, AXmlNode element);
+    }
+
+    /**
+     * @param _apkFile APK whose res/layout* entries are read
+     * @param _parallelism number of threads parsing the layout entries, 1 to parse them on the calling thread
+     */
+    public LayoutScanner(File _apkFile, int _parallelism) {
+        if (_parallelism < 1) {
+            throw new IllegalArgumentException("Layout scan parallelism has to be at least 1");
+        }
+        this.apkFile = _apkFile;
+        this.parallelism = _parallelism;
+    }
+
+    /**
+     * Parse every layout entry of the APK
+     * @throws IOException when the APK cannot be mapped, or is not a zip file this reader supports
+     */
+    public void scan() throws IOException {
+        long startTime = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(apkFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("APK " + apkFile + " is too large to be mapped");
+            }
+            MappedByteBuffer apk = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            apk.order(ByteOrder.LITTLE_ENDIAN);
+            List<ZipEntry> entries = readLayoutEntries(apk);
+            layoutFiles.clear();
+            for (ZipEntry entry: entries) {
+                layoutFiles.add(entry.name);
+            }
+            layoutFacts = new LayoutFacts[entries.size()];
+            if (parallelism == 1 || entries.size() < 2) {
+                new EntryParser(apk).parseAll(entries, new AtomicInteger());
+            } else {
+                parseInParallel(apk, entries);
+            }
+        }
+        scanNanos = System.nanoTime() - startTime;
+    }
+
+    private void parseInParallel(MappedByteBuffer apk, List<ZipEntry> entries) throws IOException {
+        // Largest entries first, taken one at a time by the workers so that a few big layouts do not end up together
+        List<ZipEntry> orderedEntries = new ArrayList<>(entries);
+        orderedEntries.sort((a, b) -> Integer.compare(b.uncompressedSize, a.uncompressedSize));
+        AtomicInteger nextEntry = new AtomicInteger();
+        int threads = Math.min(parallelism, entries.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                // Each worker gets its own view of the mapping, positions of a shared buffer are not thread-safe
+                ByteBuffer view = apk.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                futures.add(executor.submit(() -> {
+                    new EntryParser(view).parseAll(orderedEntries, nextEntry);
+                    return null;
+                }));
+            }
+            for (Future<?> future: futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning the layouts of " + apkFile, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot scan the layouts of " + apkFile, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the res/layout*.xml entries listed in the zip directory, in directory order
+     */
+    private List<ZipEntry> readLayoutEntries(ByteBuffer apk) throws IOException {
+        int end = -1;
+        for (int position = apk.limit() - 22; position >= Math.max(0, apk.limit() - 22 - 0xffff); position--) {
+            if (apk.getInt(position) == ZIP_END_OF_DIRECTORY) {
+                end = position;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException(apkFile + " is not a zip file");
+        }
+        int entryCount = apk.getShort(end + 10) & 0xffff;
+        long directoryOffset = apk.getInt(end + 16) & 0xffffffffL;
+        if (entryCount == 0xffff || directoryOffset == 0xffffffffL) {
+            throw new IOException("Zip64 archive " + apkFile + " is not supported");
+        }
+        List<ZipEntry> entries = new ArrayList<>();
+        int position = (int) directoryOffset;
+        for (int i = 0; i < entryCount; i++) {
+            if (apk.getInt(position) != ZIP_DIRECTORY_ENTRY) {
+                throw new IOException("Corrupt zip directory in " + apkFile);
+            }
+            int method = apk.getShort(position + 10) & 0xffff;
+            int compressedSize = apk.getInt(position + 20);
+            int uncompressedSize = apk.getInt(position + 24);
+            int nameLength = apk.getShort(position + 28) & 0xffff;
+            int extraLength = apk.getShort(position + 30) & 0xffff;
+            int commentLength = apk.getShort(position + 32) & 0xffff;
+            int localHeaderOffset = apk.getInt(position + 42);
+            String name = decode(apk, position + 46, nameLength, StandardCharsets.UTF_8);
+            if (name.startsWith("res/layout") && name.endsWith(".xml")) {
+                if (method != ZIP_STORED && method != ZIP_DEFLATED) {
+                    throw new IOException("Unsupported compression method " + method + " of " + name + " in " + apkFile);
+                }
+                if (apk.getInt(localHeaderOffset) != ZIP_LOCAL_HEADER) {
+                    throw new IOException("Corrupt local header of " + name + " in " + apkFile);
+                }
+                int dataOffset = localHeaderOffset + 30 + (apk.getShort(localHeaderOffset + 26) & 0xffff)
+                        + (apk.getShort(localHeaderOffset + 28) & 0xffff);
+                entries.add(new ZipEntry(entries.size(), name, method, dataOffset, compressedSize, uncompressedSize));
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length, Charset charset) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset).limit(offset + length);
+        return charset.decode(slice).toString();
+    }
+
+    /**
+     * Add the controls, views and inclusions of the scanned layouts to the application tables
+     * @param isViewTag whether an element name resolves to a view or layout class; only called on this thread
+     * @param controlFactory creates the controls of the view table, null to only record the IDs of the views of
+     *                       each layout; only called on this thread
+     * @param layoutFileOfResource layout file of a layout resource ID referenced by an include, or null
+     * @return number of controls added
+     */
+    public int fillAppInfo(AppInfo appInfo, Predicate<String> isViewTag, ControlFactory controlFactory,
+                           IntFunction<String> layoutFileOfResource) {
+        Map<String, Boolean> viewTags = new HashMap<>();
+        int controlCount = 0;
+        for (int i = 0; i < layoutFacts.length; i++) {
+            String layoutFile = layoutFiles.get(i);
+            LayoutFacts facts = layoutFacts[i];
+            for (int j = 0; j < facts.controlCount; j++) {
+                if (!viewTags.computeIfAbsent(facts.controlTags[j], isViewTag::test)) {
+                    continue;
+                }
+                appInfo.addLayoutView(layoutFile, facts.controlIDs[j]);
+                controlCount++;
+                if (controlFactory != null) {
+                    AndroidLayoutControl control = controlFactory.createControl(layoutFile, facts.controlTags[j], facts.toNode(j));
+                    if (control != null) {
+                        appInfo.addView(facts.controlIDs[j], control);
+                    }
+                }
+            }
+            for (int j = 0; j < facts.includeCount; j++) {
+                String includedLayout = layoutFileOfResource.apply(facts.includedLayoutIDs[j]);
+                if (includedLayout != null) {
+                    appInfo.addLayoutInclusion(layoutFile, includedLayout);
+                }
+            }
+        }
+        return controlCount;
+    }
+
+    public int getLayoutCount() {
+        return layoutFacts.length;
+    }
+
+    /**
+     * @return number of elements of the scanned layouts that may be controls, before their classes are resolved
+     */
+    public int getElementCount() {
+        int elementCount = 0;
+        for (LayoutFacts facts: layoutFacts) {
+            elementCount += facts.controlCount;
+        }
+        return elementCount;
+    }
+
+    public long getScanNanos() {
+        return scanNanos;
+    }
+
+    private static final class ZipEntry {
+        private final int index;
+        private final String name;
+        private final int method;
+        private final int dataOffset;
+        private final int compressedSize;
+        private final int uncompressedSize;
+
+        ZipEntry(int _index, String _name, int _method, int _dataOffset, int _compressedSize, int _uncompressedSize) {
+            this.index = _index;
+            this.name = _name;
+            this.method = _method;
+            this.dataOffset = _dataOffset;
+            this.compressedSize = _compressedSize;
+            this.uncompressedSize = _uncompressedSize;
+        }
+    }
+
+    /**
+     * Element names, IDs and attributes of the controls of one layout file, and the layout IDs of its include elements.
+     * The attributes of control i are attributes attributeStarts[i] to attributeStarts[i + 1] - 1
+     */
+    private static final class LayoutFacts {
+        private String[] controlTags = new String[8];
+        private int[] controlIDs = new int[8];
+        private int[] attributeStarts = new int[9];
+        private int controlCount;
+        private String[] attributeNamespaces = new String[32];
+        private String[] attributeNames = new String[32];
+        private int[] attributeResourceIDs = new int[32];
+        private int[] attributeTypes = new int[32];
+        private int[] attributeData = new int[32];
+        private String[] attributeStrings = new String[32];
+        private int attributeCount;
+        private int[] includedLayoutIDs = new int[2];
+        private int includeCount;
+
+        void addAttribute(String namespace, String name, int resourceID, int type, int data, String string) {
+            if (attributeCount == attributeNames.length) {
+                int capacity = attributeCount * 2;
+                attributeNamespaces = Arrays.copyOf(attributeNamespaces, capacity);
+                attributeNames = Arrays.copyOf(attributeNames, capacity);
+                attributeResourceIDs = Arrays.copyOf(attributeResourceIDs, capacity);
+                attributeTypes = Arrays.copyOf(attributeTypes, capacity);
+                attributeData = Arrays.copyOf(attributeData, capacity);
+                attributeStrings = Arrays.copyOf(attributeStrings, capacity);
+            }
+            attributeNamespaces[attributeCount] = namespace;
+            attributeNames[attributeCount] = name;
+            attributeResourceIDs[attributeCount] = resourceID;
+            attributeTypes[attributeCount] = type;
+            attributeData[attributeCount] = data;
+            attributeStrings[attributeCount] = string;
+            attributeCount++;
+        }
+
+        /**
+         * Add a control holding the attributes added since the previous control
+         */
+        void addControl(String tag, int id) {
+            if (controlCount == controlIDs.length) {
+                controlTags = Arrays.copyOf(controlTags, controlCount * 2);
+                controlIDs = Arrays.copyOf(controlIDs, controlCount * 2);
+                attributeStarts = Arrays.copyOf(attributeStarts, controlCount * 2 + 1);
+            }
+            controlTags[controlCount] = tag;
+            controlIDs[controlCount++] = id;
+            attributeStarts[controlCount] = attributeCount;
+        }
+
+        /**
+         * @return control as an element with typed attributes, like the FlowDroid parser builds it: strings, booleans,
+         * and integers for every other type, references included
+         */
+        AXmlNode toNode(int control) {
+            AXmlNode node = new AXmlNode(controlTags[control], null, null, false);
+            for (int i = attributeStarts[control]; i < attributeStarts[control + 1]; i++) {
+                AXmlAttribute<?> attribute;
+                switch (attributeTypes[i]) {
+                    case TYPE_STRING:
+                        attribute = new AXmlStringAttribute(attributeNames[i], attributeResourceIDs[i], attributeStrings[i],
+                                attributeNamespaces[i], false);
+                        break;
+                    case TYPE_INT_BOOLEAN:
+                        attribute = new AXmlBooleanAttribute(attributeNames[i], attributeResourceIDs[i], attributeData[i] != 0,
+                                attributeNamespaces[i], false);
+                        break;
+                    default:
+                        attribute = new AXmlIntegerAttribute(attributeNames[i], attributeResourceIDs[i], attributeData[i],
+                                attributeNamespaces[i], false);
+                        break;
+                }
+                node.addAttribute(attribute);
+            }
+            return node;
+        }
+
+        void addInclude(int layoutID) {
+            if (includeCount == includedLayoutIDs.length) {
+                includedLayoutIDs = Arrays.copyOf(includedLayoutIDs, includeCount * 2);
+            }
+            includedLayoutIDs[includeCount++] = layoutID;
+        }
+    }
+
+    /**
+     * Parser of layout entries owned by one thread, with its own inflater and output buffer
+     */
+    private final class EntryParser {
+        private final ByteBuffer apk;
+        private final Inflater inflater = new Inflater(true);
+        private byte[] inflated = new byte[1 << 14];
+        private String[] strings;
+        private int[] resourceMap;
+        private ByteBuffer stringPool;
+        private int stringPoolStart;
+        private int stringsStart;
+        private boolean utf8;
+
+        EntryParser(ByteBuffer _apk) {
+            this.apk = _apk;
+        }
+
+        void parseAll(List<ZipEntry> entries, AtomicInteger nextEntry) throws IOException {
+            try {
+                for (int i = nextEntry.getAndIncrement(); i < entries.size(); i = nextEntry.getAndIncrement()) {
+                    ZipEntry entry = entries.get(i);
+                    layoutFacts[entry.index] = parse(entry);
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+
+        private LayoutFacts parse(ZipEntry entry) throws IOException {
+            ByteBuffer xml;
+            if (entry.method == ZIP_STORED) {
+                xml = apk.duplicate();
+                xml.position(entry.dataOffset).limit(entry.dataOffset + entry.uncompressedSize);
+                xml = xml.slice().order(ByteOrder.LITTLE_ENDIAN);
+            } else {
+                if (inflated.length < entry.uncompressedSize) {
+                    inflated = new byte[Math.max(entry.uncompressedSize, inflated.length * 2)];
+                }
+                ByteBuffer compressed = apk.duplicate();
+                compressed.position(entry.dataOffset).limit(entry.dataOffset + entry.compressedSize);
+                inflater.reset();
+                inflater.setInput(compressed);
+                try {
+                    int length = 0;
+                    while (length < entry.uncompressedSize && !inflater.finished()) {
+                        int inflatedBytes = inflater.inflate(inflated, length, entry.uncompressedSize - length);
+                        if (inflatedBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new IOException("Truncated entry " + entry.name + " in " + apkFile);
+                        }
+                        length += inflatedBytes;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt entry " + entry.name + " in " + apkFile, e);
+                }
+                xml = ByteBuffer.wrap(inflated, 0, entry.uncompressedSize).slice().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            try {
+                return parseXml(xml);
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt binary XML " + entry.name + " in " + apkFile, e);
+            }
+        }
+
+        private LayoutFacts parseXml(ByteBuffer xml) throws IOException {
+            LayoutFacts facts = new LayoutFacts();
+            if (xml.limit() < 8 || (xml.getShort(0) & 0xffff) != RES_XML_TYPE) {
+                // FlowDroid skips plain text XML as well
+                return facts;
+            }
+            strings = null;
+            resourceMap = new int[0];
+            int chunk = xml.getShort(2) & 0xffff;
+            while (chunk + 8 <= xml.limit()) {
+                int chunkType = xml.getShort(chunk) & 0xffff;
+                int headerSize = xml.getShort(chunk + 2) & 0xffff;
+                int chunkSize = xml.getInt(chunk + 4);
+                if (chunkSize < 8) {
+                    throw new IOException("Invalid chunk size " + chunkSize);
+                }
+                switch (chunkType) {
+                    case RES_STRING_POOL_TYPE:
+                        readStringPool(xml, chunk);
+                        break;
+                    case RES_XML_RESOURCE_MAP_TYPE:
+                        resourceMap = new int[(chunkSize - headerSize) / 4];
+                        for (int i = 0; i < resourceMap.length; i++) {
+                            resourceMap[i] = xml.getInt(chunk + headerSize + 4 * i);
+                        }
+                        break;
+                    case RES_XML_START_ELEMENT_TYPE:
+                        readElement(xml, chunk + headerSize, facts);
+                        break;
+                    default:
+                        break;
+                }
+                chunk += chunkSize;
+            }
+            return facts;
+        }
+
+        private void readStringPool(ByteBuffer xml, int chunk) {
+            int stringCount = xml.getInt(chunk + 8);
+            this.utf8 = (xml.getInt(chunk + 16) & STRING_POOL_UTF8_FLAG) != 0;
+            this.stringPool = xml;
+            this.stringPoolStart = chunk + (xml.getShort(chunk + 2) & 0xffff);
+            this.stringsStart = chunk + xml.getInt(chunk + 20);
+            this.strings = new String[stringCount];
+        }
+
+        /**
+         * @return string of the pool at the given index, decoded on first use, null for a missing string
+         */
+        private String getString(int index) {
+            if (index < 0 || strings == null || index >= strings.length) {
+                return null;
+            }
+            if (strings[index] == null) {
+                int position = stringsStart + stringPool.getInt(stringPoolStart + 4 * index);
+                if (utf8) {
+                    // UTF-16 length, then UTF-8 length, each on one or two bytes
+                    position += (stringPool.get(position) & 0x80) != 0 ? 2 : 1;
+                    int length = stringPool.get(position) & 0xff;
+                    if ((length & 0x80) != 0) {
+                        length = ((length & 0x7f) << 8) | (stringPool.get(position + 1) & 0xff);
+                        position++;
+                    }
+                    strings[index] = decode(stringPool, position + 1, length, StandardCharsets.UTF_8);
+                } else {
+                    int length = stringPool.getShort(position) & 0xffff;
+                    if ((length & 0x8000) != 0) {
+                        length = ((length & 0x7fff) << 16) | (stringPool.getShort(position + 2) & 0xffff);
+                        position += 2;
+                    }
+                    strings[index] = decode(stringPool, position + 2, 2 * length, StandardCharsets.UTF_16LE);
+                }
+            }
+            return strings[index];
+        }
+
+        private void readElement(ByteBuffer xml, int element, LayoutFacts facts) {
+            String tag = getString(xml.getInt(element + 4));
+            if (tag == null || tag.trim().isEmpty()) {
+                return;
+            }
+            tag = tag.trim();
+            boolean include = tag.equals("include");
+            if (!include && (tag.equals("merge") || tag.equals("fragment") || tag.equals("dummy"))) {
+                return;
+            }
+            int attributeStart = xml.getShort(element + 8) & 0xffff;
+            int attributeSize = xml.getShort(element + 10) & 0xffff;
+            int attributeCount = xml.getShort(element + 12) & 0xffff;
+            int id = -1;
+            for (int i = 0; i < attributeCount; i++) {
+                int attribute = element + attributeStart + i * attributeSize;
+                int nameIndex = xml.getInt(attribute + 4);
+                int dataType = xml.get(attribute + 15) & 0xff;
+                int data = xml.getInt(attribute + 16);
+                String name = getString(nameIndex);
+                int resourceID = nameIndex >= 0 && nameIndex < resourceMap.length ? resourceMap[nameIndex] : -1;
+                if (!include) {
+                    String string = dataType == TYPE_STRING ? getString(data) : null;
+                    facts.addAttribute(getString(xml.getInt(attribute)), name, resourceID, dataType, data,
+                            string != null ? string : getString(xml.getInt(attribute + 8)));
+                }
+                if (dataType != TYPE_REFERENCE && dataType != TYPE_INT_HEX) {
+                    continue;
+                }
+                if (include) {
+                    if ("layout".equals(name)) {
+                        facts.addInclude(data);
+                    }
+                } else if ("id".equals(name) || resourceID == ANDROID_ATTR_ID) {
+                    id = data;
+                }
+            }
+            if (!include) {
+                facts.addControl(tag, id);
+            }
+        }
+    }
+}
@@ -16,14 +16,13 @@ import java.util.Set;
 public class Main {
     private static final String appPath = "/Users/chaopeng/Project/droidbot/playground/01_Worldweather/worldweather.apk";
     private static final String androidPlatformPath = "/Users/chaopeng/Library/Android/sdk/platforms";
-    private static final String aaptPath = "/Users/chaopeng/Library/Android/sdk/build-tools/30.0.1/aapt";
     public static void main(String[] args) {
         //SourceTraverser st = new SourceTraverser("/Users/chaopeng/Project/dreal/AmazeFileManager/043/AmazeFileManager-v.3.3.0-rc13/app/src/main/AndroidManifest.xml");
         //SetupApplication analyzer = new SetupApplication(androidPlatformPath, appPath);
         //analyzer.constructCallgraph();
         //CallGraph callGraph = Scene.v().getCallGraph();
         try {
-            APKAnalyser apkAnalyser = new APKAnalyser(appPath, androidPlatformPath, aaptPath);
+            APKAnalyser apkAnalyser = new APKAnalyser(appPath, androidPlatformPath);
             apkAnalyser.analyse();
 //            SimplifiedCallGraphNode nodeChanged = new SimplifiedCallGraphNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, "<com.amaze.filemanager.activities.AboutActivity: android.support.design.widget.CoordinatorLayout$LayoutParams calculateHeaderViewParams()>");
 //            System.out.println("Start looking for controllers and activities...");
@@ -0,0 +1,91 @@
+package androidgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects the classes whose methods are kept in the simplified call graph. A class is kept if it is in one of the
+ * included packages, or if no package is included, and if it is in none of the excluded packages.
+ * A package matches its classes and the classes of its subpackages.
+ */
+public class PackageFilter {
+    /**
+     * Platform and common library packages, to keep only app code
+     */
+    public static final List<String> LIBRARY_PACKAGES = List.of(
+            "android", "androidx", "com.android", "com.google", "dalvik", "java", "javax", "kotlin", "kotlinx",
+            "org.apache", "org.json", "org.w3c", "org.xml", "org.xmlpull", "sun");
+
+    public static final PackageFilter ALL = new PackageFilter(Collections.emptyList(), Collections.emptyList());
+
+    private final String[] includedPackages;
+    private final String[] excludedPackages;
+
+    public PackageFilter(List<String> _includedPackages, List<String> _excludedPackages) {
+        this.includedPackages = normalise(_includedPackages);
+        this.excludedPackages = normalise(_excludedPackages);
+    }
+
+    /**
+     * @return filter keeping only the classes of the app package
+     */
+    public static PackageFilter appOnly(String packageName) {
+        return new PackageFilter(List.of(packageName), Collections.emptyList());
+    }
+
+    /**
+     * @param packages comma separated package names, where @libraries stands for LIBRARY_PACKAGES
+     */
+    public static List<String> parsePackages(String packages) {
+        List<String> packageList = new ArrayList<>();
+        for (String packageName: packages.split(",")) {
+            packageName = packageName.trim();
+            if (packageName.equals("@libraries")) {
+                packageList.addAll(LIBRARY_PACKAGES);
+            } else if (!packageName.isEmpty()) {
+                packageList.add(packageName);
+            }
+        }
+        return packageList;
+    }
+
+    private static String[] normalise(List<String> packages) {
+        String[] normalised = new String[packages.size()];
+        for (int i = 0; i < normalised.length; i++) {
+            String packageName = packages.get(i);
+            normalised[i] = packageName.endsWith(".") ? packageName.substring(0, packageName.length() - 1) : packageName;
+        }
+        Arrays.sort(normalised);
+        return normalised;
+    }
+
+    private static boolean inPackage(String className, String packageName) {
+        return className.startsWith(packageName)
+                && (className.length() == packageName.length() || className.charAt(packageName.length()) == '.');
+    }
+
+    private static boolean inAnyPackage(String className, String[] packages) {
+        for (String packageName: packages) {
+            if (inPackage(className, packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean accepts(String className) {
+        return (includedPackages.length == 0 || inAnyPackage(className, includedPackages))
+                && !inAnyPackage(className, excludedPackages);
+    }
+
+    public boolean acceptsAll() {
+        return includedPackages.length == 0 && excludedPackages.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "include=" + String.join(",", includedPackages) + ";exclude=" + String.join(",", excludedPackages);
+    }
+}
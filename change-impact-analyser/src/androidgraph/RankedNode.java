@@ -0,0 +1,51 @@
+package androidgraph;
+
+/**
+ * Node found by a ranked query, with the number of edges to its closest base node and the number of base nodes
+ * reaching it. Ordered closest first, then most reached first
+ */
+public final class RankedNode implements Comparable<RankedNode> {
+    private final SimplifiedCallGraphNode node;
+    private final int distance;
+    private final int reachingCount;
+
+    RankedNode(SimplifiedCallGraphNode _node, int _distance, int _reachingCount) {
+        this.node = _node;
+        this.distance = _distance;
+        this.reachingCount = _reachingCount;
+    }
+
+    public SimplifiedCallGraphNode getNode() {
+        return node;
+    }
+
+    /**
+     * @return number of edges between the node and the closest base node reaching it
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return number of base nodes reaching the node within the explored depth
+     */
+    public int getReachingCount() {
+        return reachingCount;
+    }
+
+    @Override
+    public int compareTo(RankedNode other) {
+        if (distance != other.distance) {
+            return Integer.compare(distance, other.distance);
+        }
+        if (reachingCount != other.reachingCount) {
+            return Integer.compare(other.reachingCount, reachingCount);
+        }
+        return Integer.compare(node.getUniqueID(), other.node.getUniqueID());
+    }
+
+    @Override
+    public String toString() {
+        return node + " (distance " + distance + ", reached by " + reachingCount + ")";
+    }
+}
@@ -0,0 +1,102 @@
+package androidgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Level-synchronous backward traversal from several base nodes, following the rule of CompactCallGraph.traceBack.
+ * All base nodes advance one level at a time; the traversal stops after the level at which enough nodes are
+ * collected, or at the maximum depth, so a hub method does not pay for its whole closure.
+ * Collected nodes are ranked by distance, then by the number of base nodes reaching them within the explored depth.
+ */
+final class RankedTraceBack {
+    private RankedTraceBack() {
+    }
+
+    /**
+     * @param baseNodes ids of the nodes to start from, e.g. the changed methods
+     * @param targetNodeType type of the collected nodes
+     * @param maxResults number of nodes returned at most, the traversal ends with the level reaching it
+     * @param maxDepth number of edges followed at most from a base node
+     * @return collected nodes, closest and most reached first
+     */
+    static List<RankedNode> rank(CompactCallGraph graph, int[] baseNodes, int targetNodeType, int maxResults, int maxDepth) {
+        if (maxResults < 1 || maxDepth < 1) {
+            throw new IllegalArgumentException("maxResults and maxDepth must be at least 1");
+        }
+        int[][] frontiers = new int[baseNodes.length][];
+        int[] frontierSizes = new int[baseNodes.length];
+        BitSet[] processedNodes = new BitSet[baseNodes.length];
+        for (int i = 0; i < baseNodes.length; i++) {
+            frontiers[i] = new int[] {baseNodes[i]};
+            frontierSizes[i] = 1;
+            processedNodes[i] = new BitSet();
+            processedNodes[i].set(baseNodes[i]);
+        }
+
+        // Collected nodes by ordinal, sized by the results rather than by the graph so that short queries stay cheap
+        Map<Integer, Integer> ordinals = new HashMap<>();
+        int[] collectedNodes = new int[16];
+        int[] distances = new int[16];
+        int[] reachingCounts = new int[16];
+        int collectedCount = 0;
+        int[] nextFrontier = new int[16];
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            boolean expanded = false;
+            for (int i = 0; i < baseNodes.length; i++) {
+                int nextSize = 0;
+                for (int f = 0; f < frontierSizes[i]; f++) {
+                    int node = frontiers[i][f];
+                    for (int p = graph.getPredecessorStart(node); p < graph.getPredecessorEnd(node); p++) {
+                        int relatedNode = graph.getPredecessor(p);
+                        int relatedType = graph.getNodeType(relatedNode);
+                        if (relatedType > targetNodeType || processedNodes[i].get(relatedNode)) {
+                            continue;
+                        }
+                        processedNodes[i].set(relatedNode);
+                        if (relatedType == targetNodeType) {
+                            Integer ordinal = ordinals.get(relatedNode);
+                            if (ordinal == null) {
+                                if (collectedCount == collectedNodes.length) {
+                                    collectedNodes = Arrays.copyOf(collectedNodes, collectedCount * 2);
+                                    distances = Arrays.copyOf(distances, collectedCount * 2);
+                                    reachingCounts = Arrays.copyOf(reachingCounts, collectedCount * 2);
+                                }
+                                ordinal = collectedCount++;
+                                ordinals.put(relatedNode, ordinal);
+                                collectedNodes[ordinal] = relatedNode;
+                                distances[ordinal] = depth;
+                            }
+                            reachingCounts[ordinal]++;
+                        } else {
+                            if (nextSize == nextFrontier.length) {
+                                nextFrontier = Arrays.copyOf(nextFrontier, nextSize * 2);
+                            }
+                            nextFrontier[nextSize++] = relatedNode;
+                        }
+                    }
+                }
+                // Swap the buffers, so each base node keeps its own frontier
+                int[] frontier = frontiers[i];
+                frontiers[i] = nextFrontier;
+                frontierSizes[i] = nextSize;
+                nextFrontier = frontier;
+                expanded |= nextSize > 0;
+            }
+            if (collectedCount >= maxResults || !expanded) {
+                break;
+            }
+        }
+
+        List<RankedNode> rankedNodes = new ArrayList<>(collectedCount);
+        for (int i = 0; i < collectedCount; i++) {
+            rankedNodes.add(new RankedNode(graph.getNode(collectedNodes[i]), distances[i], reachingCounts[i]));
+        }
+        rankedNodes.sort(null);
+        return rankedNodes.size() > maxResults ? new ArrayList<>(rankedNodes.subList(0, maxResults)) : rankedNodes;
+    }
+}
@@ -0,0 +1,146 @@
+package androidgraph;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Precomputed view and activity reachability of every node of a compacted CompactCallGraph.
+ * Reachability follows the rule of CompactCallGraph.traceBack: nodes of the target type are collected,
+ * nodes of a lower type are expanded. Results are BitSets over a dense ordinal space per target type,
+ * so the impact of a node is a lookup and the impact of several nodes is an OR of their BitSets.
+ */
+public class ReachabilityIndex {
+    private final BitSet[] viewClosures;
+    private final BitSet[] activityClosures;
+    private final int[] viewNodes;
+    private final int[] activityNodes;
+    private final long buildTimeMillis;
+    private final long memoryFootprintBytes;
+
+    public ReachabilityIndex(CompactCallGraph _graph) {
+        long startTime = System.currentTimeMillis();
+        int nodeCount = _graph.getNodeCount();
+
+        GraphClosure viewClosure = new GraphClosure(_graph, typeRule(_graph, SimplifiedCallGraphNode.NODE_TYPE_VIEW));
+        GraphClosure activityClosure = new GraphClosure(_graph, typeRule(_graph, SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY));
+        this.viewClosures = new BitSet[nodeCount];
+        this.activityClosures = new BitSet[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            viewClosures[node] = viewClosure.closureOf(node);
+            activityClosures[node] = activityClosure.closureOf(node);
+        }
+        this.viewNodes = collectedNodes(viewClosure);
+        this.activityNodes = collectedNodes(activityClosure);
+
+        this.buildTimeMillis = System.currentTimeMillis() - startTime;
+        this.memoryFootprintBytes = estimateFootprint();
+    }
+
+    static GraphClosure.EdgeRule typeRule(CompactCallGraph graph, int targetNodeType) {
+        return (node, predecessor) -> {
+            int predecessorType = graph.getNodeType(predecessor);
+            if (predecessorType == targetNodeType) {
+                return GraphClosure.COLLECT;
+            } else if (predecessorType < targetNodeType) {
+                return GraphClosure.EXPAND;
+            } else {
+                return GraphClosure.IGNORE;
+            }
+        };
+    }
+
+    private static int[] collectedNodes(GraphClosure closure) {
+        int[] nodes = new int[closure.getCollectedCount()];
+        for (int ordinal = 0; ordinal < nodes.length; ordinal++) {
+            nodes[ordinal] = closure.getCollectedNode(ordinal);
+        }
+        return nodes;
+    }
+
+    private long estimateFootprint() {
+        // Object header and array header sizes of a 64 bit JVM with compressed oops
+        final long objectHeader = 16;
+        final long arrayHeader = 16;
+        Set<BitSet> distinctClosures = Collections.newSetFromMap(new IdentityHashMap<>());
+        long bytes = 2 * (arrayHeader + 4L * viewClosures.length);
+        bytes += 2 * arrayHeader + 4L * (viewNodes.length + activityNodes.length);
+        for (int node = 0; node < viewClosures.length; node++) {
+            distinctClosures.add(viewClosures[node]);
+            distinctClosures.add(activityClosures[node]);
+        }
+        for (BitSet closure: distinctClosures) {
+            bytes += objectHeader + 8 + arrayHeader + closure.size() / 8;
+        }
+        return bytes;
+    }
+
+    private BitSet closures(int node, int targetNodeType) {
+        switch (targetNodeType) {
+            case SimplifiedCallGraphNode.NODE_TYPE_VIEW:
+                return viewClosures[node];
+            case SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY:
+                return activityClosures[node];
+            default:
+                throw new IllegalArgumentException("Reachability is only indexed for views and activities");
+        }
+    }
+
+    private int[] targetNodes(int targetNodeType) {
+        switch (targetNodeType) {
+            case SimplifiedCallGraphNode.NODE_TYPE_VIEW:
+                return viewNodes;
+            case SimplifiedCallGraphNode.NODE_TYPE_ACTIVITY:
+                return activityNodes;
+            default:
+                throw new IllegalArgumentException("Reachability is only indexed for views and activities");
+        }
+    }
+
+    /**
+     * @return ordinals of the nodes of targetNodeType reachable from node. The returned set must not be modified
+     */
+    public BitSet getReachable(int node, int targetNodeType) {
+        return closures(node, targetNodeType);
+    }
+
+    /**
+     * @return ordinals of the nodes of targetNodeType reachable from any of the given nodes
+     */
+    public BitSet getReachable(int[] nodes, int targetNodeType) {
+        BitSet reachable = new BitSet();
+        for (int node: nodes) {
+            reachable.or(closures(node, targetNodeType));
+        }
+        return reachable;
+    }
+
+    /**
+     * @return graph ids of the nodes behind the given ordinals
+     */
+    public BitSet toGraphNodes(BitSet ordinals, int targetNodeType) {
+        int[] targetNodes = targetNodes(targetNodeType);
+        BitSet graphNodes = new BitSet();
+        for (int ordinal = ordinals.nextSetBit(0); ordinal >= 0; ordinal = ordinals.nextSetBit(ordinal + 1)) {
+            graphNodes.set(targetNodes[ordinal]);
+        }
+        return graphNodes;
+    }
+
+    public int getViewCount() {
+        return viewNodes.length;
+    }
+
+    public int getActivityCount() {
+        return activityNodes.length;
+    }
+
+    public long getBuildTimeMillis() {
+        return buildTimeMillis;
+    }
+
+    public long getMemoryFootprintBytes() {
+        return memoryFootprintBytes;
+    }
+}
@@ -0,0 +1,103 @@
+package androidgraph;
+
+import java.util.Arrays;
+
+/**
+ * Values keyed by Android resource IDs, which have the fixed 0xPPTTEEEE layout of package, type and entry index.
+ * Values are kept in an entry array per package and type, so a lookup is three array reads and never allocates
+ */
+final class ResourceArray<T> {
+    private static final int INITIAL_ENTRY_CAPACITY = 16;
+
+    /**
+     * Receives the IDs and values of the array
+     */
+    interface Visitor<T> {
+        void visit(int id, T value);
+    }
+
+    // Entry arrays by package byte, then by type byte
+    private final Object[][][] packages = new Object[256][][];
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        Object[][] types = packages[id >>> 24];
+        if (types == null) {
+            return null;
+        }
+        Object[] entries = types[(id >>> 16) & 0xff];
+        int entry = id & 0xffff;
+        return entries == null || entry >= entries.length ? null : (T) entries[entry];
+    }
+
+    /**
+     * @return the value previously stored for the ID, null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    T put(int id, T value) {
+        Object[][] types = packages[id >>> 24];
+        if (types == null) {
+            types = packages[id >>> 24] = new Object[256][];
+        }
+        int type = (id >>> 16) & 0xff;
+        int entry = id & 0xffff;
+        Object[] entries = types[type];
+        if (entries == null) {
+            entries = types[type] = new Object[Math.max(INITIAL_ENTRY_CAPACITY, Integer.highestOneBit(entry) << 1)];
+        } else if (entry >= entries.length) {
+            entries = types[type] = Arrays.copyOf(entries, Math.min(0x10000, Integer.highestOneBit(entry) << 1));
+        }
+        Object previous = entries[entry];
+        entries[entry] = value;
+        if (previous == null) {
+            size++;
+        }
+        return (T) previous;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(Visitor<T> visitor) {
+        for (int packageID = 0; packageID < packages.length; packageID++) {
+            if (packages[packageID] == null) {
+                continue;
+            }
+            for (int type = 0; type < 256; type++) {
+                Object[] entries = packages[packageID][type];
+                if (entries == null) {
+                    continue;
+                }
+                for (int entry = 0; entry < entries.length; entry++) {
+                    if (entries[entry] != null) {
+                        visitor.visit(packageID << 24 | type << 16 | entry, (T) entries[entry]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return approximate heap size of the arrays, without the values
+     */
+    long estimateMemoryBytes() {
+        // Array header and reference sizes of a 64 bit JVM with compressed oops
+        final long arrayHeader = 16;
+        long bytes = arrayHeader + 4L * packages.length;
+        for (Object[][] types: packages) {
+            if (types == null) {
+                continue;
+            }
+            bytes += arrayHeader + 4L * types.length;
+            for (Object[] entries: types) {
+                if (entries != null) {
+                    bytes += arrayHeader + 4L * entries.length;
+                }
+            }
+        }
+        return bytes;
+    }
+}
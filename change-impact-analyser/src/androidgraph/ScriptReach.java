@@ -0,0 +1,66 @@
+package androidgraph;
+
+import java.util.BitSet;
+
+/**
+ * App functions a droidbot script can run, and the changed ones among them. Ordered by the number of changed
+ * functions reached, most first, then by the number of functions reached
+ */
+public final class ScriptReach implements Comparable<ScriptReach> {
+    private final DroidbotScript script;
+    private final int startNodeCount;
+    private final BitSet reachableFunctions;
+    private final BitSet reachedChangedFunctions;
+
+    ScriptReach(DroidbotScript _script, int _startNodeCount, BitSet _reachableFunctions, BitSet _reachedChangedFunctions) {
+        this.script = _script;
+        this.startNodeCount = _startNodeCount;
+        this.reachableFunctions = _reachableFunctions;
+        this.reachedChangedFunctions = _reachedChangedFunctions;
+    }
+
+    public DroidbotScript getScript() {
+        return script;
+    }
+
+    /**
+     * @return number of views and activities of the graph matched by the script selectors
+     */
+    public int getStartNodeCount() {
+        return startNodeCount;
+    }
+
+    /**
+     * @return graph ids of the app functions reachable from the matched activities and from the activities owning
+     * the matched views
+     */
+    public BitSet getReachableFunctions() {
+        return reachableFunctions;
+    }
+
+    /**
+     * @return graph ids of the changed functions among the reachable ones
+     */
+    public BitSet getReachedChangedFunctions() {
+        return reachedChangedFunctions;
+    }
+
+    @Override
+    public int compareTo(ScriptReach other) {
+        int changedCount = reachedChangedFunctions.cardinality();
+        int otherChangedCount = other.reachedChangedFunctions.cardinality();
+        if (changedCount != otherChangedCount) {
+            return Integer.compare(otherChangedCount, changedCount);
+        }
+        if (reachableFunctions.cardinality() != other.reachableFunctions.cardinality()) {
+            return Integer.compare(other.reachableFunctions.cardinality(), reachableFunctions.cardinality());
+        }
+        return script.getName().compareTo(other.script.getName());
+    }
+
+    @Override
+    public String toString() {
+        return script.getName() + ": " + reachedChangedFunctions.cardinality() + " changed of " +
+                reachableFunctions.cardinality() + " reachable functions from " + startNodeCount + " views and activities";
+    }
+}
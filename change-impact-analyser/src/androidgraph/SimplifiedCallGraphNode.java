@@ -1,6 +1,7 @@
 package androidgraph;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SimplifiedCallGraphNode {
     public static final int NODE_TYPE_FUNCTION = 1;
@@ -11,13 +12,52 @@ public class SimplifiedCallGraphNode {
     private final int nodeType;
     private final String nodeValue;
     private final int uniqueID;
+    private final int hash;
 
-    private static int idCounter = 0;
+    // Only for nodes created outside a graph; graph nodes take their id from CompactCallGraph, which assigns ids in
+    // insertion order and so gives the same ids for the same analysis on any number of threads
+    private static final AtomicInteger idCounter = new AtomicInteger();
 
     public SimplifiedCallGraphNode(int _nodeType, String _nodeValue) {
         this.nodeType = _nodeType;
         this.nodeValue = _nodeValue;
-        this.uniqueID = idCounter++;
+        this.uniqueID = idCounter.getAndIncrement();
+        this.hash = hash(_nodeType, _nodeValue);
+    }
+
+    SimplifiedCallGraphNode(int _nodeType, String _nodeValue, int _uniqueID) {
+        this.nodeType = _nodeType;
+        this.nodeValue = _nodeValue;
+        this.uniqueID = _uniqueID;
+        this.hash = hash(_nodeType, _nodeValue);
+    }
+
+    /**
+     * @return name of a node type in the exported graphs and reports, e.g. function
+     */
+    static String typeName(int nodeType) {
+        return switch (nodeType) {
+            case NODE_TYPE_FUNCTION -> "function";
+            case NODE_TYPE_VIEW -> "view";
+            case NODE_TYPE_LAYOUT -> "layout";
+            case NODE_TYPE_ACTIVITY -> "activity";
+            default -> throw new IllegalArgumentException("Unknown node type " + nodeType);
+        };
+    }
+
+    static int parseTypeName(String typeName) {
+        return switch (typeName) {
+            case "function" -> NODE_TYPE_FUNCTION;
+            case "view" -> NODE_TYPE_VIEW;
+            case "layout" -> NODE_TYPE_LAYOUT;
+            case "activity" -> NODE_TYPE_ACTIVITY;
+            default -> throw new IllegalArgumentException("Unknown node type " + typeName);
+        };
+    }
+
+    private static int hash(int nodeType, String nodeValue) {
+        // Same value as Objects.hash(nodeType, nodeValue), without boxing
+        return 31 * (31 + nodeType) + Objects.hashCode(nodeValue);
     }
 
     public int getUniqueID() {
@@ -48,12 +88,12 @@ public class SimplifiedCallGraphNode {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SimplifiedCallGraphNode that = (SimplifiedCallGraphNode) o;
-        return nodeType == that.nodeType &&
+        return hash == that.hash && nodeType == that.nodeType &&
                 Objects.equals(nodeValue, that.nodeValue);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(nodeType, nodeValue);
+        return hash;
     }
 }
@@ -0,0 +1,66 @@
+package androidgraph;
+
+import soot.SootMethod;
+
+import java.util.Arrays;
+
+/**
+ * Signature strings and function node ids of Soot methods, indexed by SootMethod.getNumber().
+ * Each signature is formatted once when the method is registered and each function node is interned once, so the
+ * call graph edges can be turned into graph edges by array lookups.
+ * The node ids belong to the one graph passed to internNode(). Registering and interning are done on one thread,
+ * contains() may be called from any thread after registering is done.
+ */
+final class SootMethodTable {
+    private String[] signatures;
+    private int[] nodeIds;
+
+    SootMethodTable(int _expectedMethodCount) {
+        int capacity = Math.max(16, _expectedMethodCount + 1);
+        this.signatures = new String[capacity];
+        this.nodeIds = new int[capacity];
+        Arrays.fill(nodeIds, -1);
+    }
+
+    /**
+     * @return the signature of the method, formatted on the first call
+     */
+    String register(SootMethod sootMethod) {
+        int number = sootMethod.getNumber();
+        if (number <= 0) {
+            // Not numbered by the Scene
+            return sootMethod.toString();
+        }
+        if (number >= signatures.length) {
+            int capacity = Math.max(number + 1, signatures.length * 2);
+            int previousCapacity = nodeIds.length;
+            signatures = Arrays.copyOf(signatures, capacity);
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+            Arrays.fill(nodeIds, previousCapacity, capacity, -1);
+        }
+        if (signatures[number] == null) {
+            signatures[number] = sootMethod.toString();
+        }
+        return signatures[number];
+    }
+
+    /**
+     * @return true if a method with this number has been registered
+     */
+    boolean contains(int number) {
+        return number > 0 && number < signatures.length && signatures[number] != null;
+    }
+
+    /**
+     * @param number number of a registered method
+     * @return id of the function node of the method in the graph, interned on the first call
+     */
+    int internNode(int number, CompactCallGraph graph) {
+        int node = nodeIds[number];
+        if (node < 0) {
+            node = graph.internNode(SimplifiedCallGraphNode.NODE_TYPE_FUNCTION, signatures[number]);
+            nodeIds[number] = node;
+        }
+        return node;
+    }
+}
@@ -0,0 +1,157 @@
+package androidgraph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Layout facts of parsed source files, keyed by file path and valid while the modification time and the length of
+ * the file are unchanged. Kept in a binary file that is memory-mapped on load, so that SourceTraverser only parses
+ * the files changed since the previous run.
+ */
+public class SourceFactsCache {
+    private static final int MAGIC = 0x43415453; // "CATS"
+    private static final int FORMAT_VERSION = 1;
+
+    private final File cacheFile;
+    private final Map<String, SourceFacts> entries = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private volatile boolean modified;
+
+    /**
+     * @param _cacheFile file the cache is loaded from, if it exists, and stored to
+     */
+    public SourceFactsCache(File _cacheFile) {
+        this.cacheFile = _cacheFile;
+        if (cacheFile.isFile()) {
+            load();
+        }
+    }
+
+    private void load() {
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                logger.info("Ignoring source facts cache " + cacheFile + " written in another format");
+                return;
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String path = BinaryIO.readString(buffer);
+                long lastModified = buffer.getLong();
+                long length = buffer.getLong();
+                entries.put(path, new SourceFacts(lastModified, length, readStrings(buffer), readStrings(buffer)));
+            }
+        } catch (IOException | RuntimeException e) {
+            entries.clear();
+            logger.info("Ignoring unreadable source facts cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private static List<String> readStrings(MappedByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(BinaryIO.readString(buffer));
+        }
+        return values;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value: values) {
+            BinaryIO.writeString(out, value);
+        }
+    }
+
+    /**
+     * @return facts of the file, or null if the file is not cached or changed since
+     */
+    public SourceFacts get(File sourceFile) {
+        SourceFacts facts = entries.get(sourceFile.getPath());
+        if (facts == null || facts.lastModified != sourceFile.lastModified() || facts.length != sourceFile.length()) {
+            return null;
+        }
+        return facts;
+    }
+
+    /**
+     * @param facts facts of the file, created with the modification time and length the file had before parsing
+     */
+    public void put(File sourceFile, SourceFacts facts) {
+        entries.put(sourceFile.getPath(), facts);
+        modified = true;
+    }
+
+    /**
+     * Write the cache file if an entry was added since it was loaded
+     */
+    public void store() throws IOException {
+        if (!modified) {
+            return;
+        }
+        File directory = cacheFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        File temporaryFile = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            Map<String, SourceFacts> snapshot = Map.copyOf(entries);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, SourceFacts> entry: snapshot.entrySet()) {
+                BinaryIO.writeString(out, entry.getKey());
+                out.writeLong(entry.getValue().lastModified);
+                out.writeLong(entry.getValue().length);
+                writeStrings(out, entry.getValue().layouts);
+                writeStrings(out, entry.getValue().fragments);
+            }
+        }
+        Files.move(temporaryFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        modified = false;
+    }
+
+    /**
+     * Layouts and fragment classes referenced by one source file
+     */
+    public static final class SourceFacts {
+        private final long lastModified;
+        private final long length;
+        private final List<String> layouts;
+        private final List<String> fragments;
+
+        SourceFacts(long _lastModified, long _length, List<String> _layouts, List<String> _fragments) {
+            this.lastModified = _lastModified;
+            this.length = _length;
+            this.layouts = Collections.unmodifiableList(_layouts);
+            this.fragments = Collections.unmodifiableList(_fragments);
+        }
+
+        public List<String> getLayouts() {
+            return layouts;
+        }
+
+        /**
+         * @return fully qualified names of the fragment classes instantiated by the file
+         */
+        public List<String> getFragments() {
+            return fragments;
+        }
+    }
+}
@@ -2,17 +2,30 @@ package androidgraph;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.DocumentBuilder;
 
-import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
 import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
 import com.github.javaparser.ast.expr.MethodCallExpr;
-import com.github.javaparser.ast.visitor.VoidVisitor;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
 import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,37 +34,143 @@ import org.w3c.dom.NodeList;
 import org.w3c.dom.Node;
 import org.w3c.dom.Element;
 
+/**
+ * Layouts used by the activities declared in a source tree manifest, and by the fragments they instantiate.
+ * Sources are parsed concurrently on a bounded pool, each thread with its own parser sharing one configuration.
+ * With a SourceFactsCache, files unchanged since they were cached are not parsed again.
+ */
 public class SourceTraverser {
+    private static final ParserConfiguration parserConfiguration = new ParserConfiguration();
+    private static final ThreadLocal<JavaParser> parsers = ThreadLocal.withInitial(() -> new JavaParser(parserConfiguration));
+
     private final String axmlFilePath;
     private final String relativeRootPath;
     private final String packageName;
-    private Map<String, List<String>> activityLayoutMap;
+    private final Map<String, List<String>> activityLayoutMap;
+    private final Map<String, List<String>> fragmentLayoutMap;
+    private final SourceFactsCache factsCache;
+    private final int parallelism;
+    private final AnalysisMetrics metrics;
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private static class LayoutFileNameCollector extends VoidVisitorAdapter<List<String>> {
+    /**
+     * Collects the layouts given to setContentView and inflate, and the fragments created with new or newInstance
+     */
+    private static class SourceFactsCollector extends VoidVisitorAdapter<Void> {
+        private final List<String> layouts = new ArrayList<>();
+        private final List<String> fragments = new ArrayList<>();
+        private final Map<String, String> importedClasses = new HashMap<>();
+        private final String sourcePackage;
+
+        SourceFactsCollector(CompilationUnit cu) {
+            this.sourcePackage = cu.getPackageDeclaration().map(declaration -> declaration.getNameAsString() + ".").orElse("");
+            for (ImportDeclaration importDeclaration: cu.getImports()) {
+                if (!importDeclaration.isAsterisk() && !importDeclaration.isStatic()) {
+                    importedClasses.put(importDeclaration.getName().getIdentifier(), importDeclaration.getNameAsString());
+                }
+            }
+        }
+
+        @Override
+        public void visit(MethodCallExpr n, Void arg) {
+            super.visit(n, arg);
+            String methodName = n.getNameAsString();
+            if (methodName.equals("setContentView") && n.getArguments().size() > 0) {
+                layouts.add(n.getArgument(0).toString());
+            } else if (methodName.equals("inflate") && n.getArguments().size() > 0
+                    && n.getArgument(0).toString().startsWith("R.layout.")) {
+                layouts.add(n.getArgument(0).toString());
+            } else if (methodName.equals("newInstance") && n.getScope().isPresent() && n.getScope().get() instanceof NameExpr) {
+                addFragment(((NameExpr) n.getScope().get()).getNameAsString());
+            }
+        }
+
         @Override
-        public void visit(MethodCallExpr n, List<String> arg) {
+        public void visit(ObjectCreationExpr n, Void arg) {
             super.visit(n, arg);
-            if (n.getNameAsString().equals("setContentView")) {
-                arg.add(n.getArgument(0).toString());
+            addFragment(n.getType().getScope().map(scope -> scope.asString() + ".").orElse("") + n.getType().getNameAsString());
+        }
+
+        private void addFragment(String typeName) {
+            if (!typeName.endsWith("Fragment") || typeName.endsWith(".Fragment") || typeName.equals("Fragment")) {
+                return;
+            }
+            String className;
+            if (typeName.indexOf('.') >= 0) {
+                className = typeName;
+            } else {
+                className = importedClasses.getOrDefault(typeName, sourcePackage + typeName);
+            }
+            if (!fragments.contains(className)) {
+                fragments.add(className);
             }
         }
     }
 
     public SourceTraverser(String _axmlFilePath) throws Exception {
-        activityLayoutMap = new HashMap<>();
+        this(_axmlFilePath, null);
+    }
+
+    /**
+     * @param _listener receives the phase timings and counters of the traversal, may be null
+     */
+    public SourceTraverser(String _axmlFilePath, AnalysisListener _listener) throws Exception {
+        this(_axmlFilePath, _listener, null, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param _listener receives the phase timings and counters of the traversal, may be null
+     * @param _factsCache facts of the sources parsed by previous runs, updated and stored by this run, may be null
+     * @param _parallelism number of sources parsed at the same time
+     */
+    public SourceTraverser(String _axmlFilePath, AnalysisListener _listener, SourceFactsCache _factsCache, int _parallelism) throws Exception {
+        if (_parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        activityLayoutMap = new LinkedHashMap<>();
+        fragmentLayoutMap = new LinkedHashMap<>();
+        factsCache = _factsCache;
+        parallelism = _parallelism;
 
         axmlFilePath = _axmlFilePath;
+        metrics = new AnalysisMetrics(axmlFilePath);
+        if (_listener != null) {
+            metrics.addListener(_listener);
+        }
         relativeRootPath = axmlFilePath.substring(0, axmlFilePath.lastIndexOf("/") + 1);
         logger.info("Path to the source: " + relativeRootPath);
         File axmlFile = new File(axmlFilePath);
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        Document doc = dBuilder.parse(axmlFile);
-        doc.getDocumentElement().normalize();
+        Document doc;
+        AnalysisMetrics.PhaseTimer manifestPhase = metrics.startPhase("manifest");
+        try {
+            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+            doc = dBuilder.parse(axmlFile);
+            doc.getDocumentElement().normalize();
+        } finally {
+            manifestPhase.end();
+        }
         packageName = doc.getDocumentElement().getAttribute("package");
         logger.info("Package name: " + packageName);
 
+        AnalysisMetrics.PhaseTimer sourcesPhase = metrics.startPhase("sources");
+        try {
+            traverseActivities(doc);
+        } finally {
+            sourcesPhase.end();
+        }
+        if (factsCache != null) {
+            try {
+                factsCache.store();
+            } catch (IOException e) {
+                logger.info("Cannot write the source facts cache: " + e.getMessage());
+            }
+        }
+        metrics.finish();
+    }
+
+    private void traverseActivities(Document doc) throws InterruptedException {
+        List<String> activityNames = new ArrayList<>();
         NodeList activityList = doc.getElementsByTagName("activity");
         for (int i = 0; i < activityList.getLength(); i++) {
             Node activityNode = activityList.item(i);
@@ -61,21 +180,153 @@ public class SourceTraverser {
                 if (activityName.charAt(0) == '.') {
                     activityName = packageName + activityName;
                 }
-                CompilationUnit cu;
-                try {
-                    cu = StaticJavaParser.parse(new File(relativeRootPath + activityName.replace('.', '/') + ".java"));
-                } catch (Exception e) {
-                    cu = StaticJavaParser.parse(new File(relativeRootPath + "java/" + activityName.replace('.', '/') + ".java"));
+                activityNames.add(activityName);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, activityNames.size())));
+        try {
+            Set<String> knownClasses = new HashSet<>(activityNames);
+            List<String> fragmentNames = new ArrayList<>();
+            Map<String, SourceFactsCache.SourceFacts> activityFacts = collectFacts(activityNames, executor);
+            for (int i = 0; i < activityNames.size(); i++) {
+                String activityName = activityNames.get(i);
+                SourceFactsCache.SourceFacts facts = activityFacts.get(activityName);
+                if (facts == null) {
+                    continue;
                 }
-                List<String> layouts = new ArrayList<>();
-                VoidVisitor<List<String>> layoutFileCollector = new LayoutFileNameCollector();
-                layoutFileCollector.visit(cu, layouts);
-                activityLayoutMap.put(activityName, layouts);
+                activityLayoutMap.put(activityName, facts.getLayouts());
+                metrics.increment("activities");
+                metrics.add("layoutReferences", facts.getLayouts().size());
                 logger.info("Activity " + i + " detected: " + activityName);
-                layouts.forEach(layout -> logger.info("Layout detected: " + layout));
+                facts.getLayouts().forEach(layout -> logger.info("Layout detected: " + layout));
+                for (String fragment: facts.getFragments()) {
+                    if (knownClasses.add(fragment)) {
+                        fragmentNames.add(fragment);
+                    }
+                }
+            }
+            // Fragments may create other fragments, so they are traversed level by level
+            while (!fragmentNames.isEmpty()) {
+                Map<String, SourceFactsCache.SourceFacts> fragmentFacts = collectFacts(fragmentNames, executor);
+                List<String> nextFragmentNames = new ArrayList<>();
+                for (String fragmentName: fragmentNames) {
+                    SourceFactsCache.SourceFacts facts = fragmentFacts.get(fragmentName);
+                    if (facts == null) {
+                        continue;
+                    }
+                    fragmentLayoutMap.put(fragmentName, facts.getLayouts());
+                    metrics.increment("fragments");
+                    metrics.add("layoutReferences", facts.getLayouts().size());
+                    logger.info("Fragment detected: " + fragmentName);
+                    facts.getLayouts().forEach(layout -> logger.info("Layout detected: " + layout));
+                    for (String fragment: facts.getFragments()) {
+                        if (knownClasses.add(fragment)) {
+                            nextFragmentNames.add(fragment);
+                        }
+                    }
+                }
+                fragmentNames = nextFragmentNames;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return facts of the source of each class, in the order of the classes, without the classes whose source
+     * is not found or cannot be parsed
+     */
+    private Map<String, SourceFactsCache.SourceFacts> collectFacts(List<String> classNames, ExecutorService executor) throws InterruptedException {
+        List<Future<SourceFactsCache.SourceFacts>> futures = new ArrayList<>();
+        for (String className: classNames) {
+            futures.add(executor.submit(() -> factsOf(className)));
+        }
+        Map<String, SourceFactsCache.SourceFacts> facts = new LinkedHashMap<>();
+        for (int i = 0; i < classNames.size(); i++) {
+            try {
+                SourceFactsCache.SourceFacts classFacts = futures.get(i).get();
+                if (classFacts != null) {
+                    facts.put(classNames.get(i), classFacts);
+                }
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Cannot traverse the source of " + classNames.get(i), e.getCause());
+            }
+        }
+        return facts;
+    }
+
+    private SourceFactsCache.SourceFacts factsOf(String className) throws FileNotFoundException {
+        File sourceFile = findSourceFile(className);
+        if (sourceFile == null) {
+            metrics.increment("missingSources");
+            logger.info("No source file found for " + className);
+            return null;
+        }
+        if (factsCache != null) {
+            SourceFactsCache.SourceFacts cachedFacts = factsCache.get(sourceFile);
+            if (cachedFacts != null) {
+                metrics.increment("cachedSources");
+                return cachedFacts;
+            }
+        }
+        long lastModified = sourceFile.lastModified();
+        long length = sourceFile.length();
+        ParseResult<CompilationUnit> parseResult = parsers.get().parse(sourceFile);
+        metrics.increment("parsedSources");
+        if (parseResult.getResult().isEmpty()) {
+            metrics.increment("unparsableSources");
+            logger.info("Cannot parse " + sourceFile + ": " + parseResult.getProblems());
+            return null;
+        }
+        SourceFactsCollector collector = new SourceFactsCollector(parseResult.getResult().get());
+        collector.visit(parseResult.getResult().get(), null);
+        SourceFactsCache.SourceFacts facts = new SourceFactsCache.SourceFacts(lastModified, length, collector.layouts, collector.fragments);
+        if (factsCache != null) {
+            factsCache.put(sourceFile, facts);
+        }
+        return facts;
+    }
+
+    /**
+     * @return source file of the class, directly under the manifest directory or under its java directory,
+     * null if there is none
+     */
+    private File findSourceFile(String className) {
+        int nestedClass = className.indexOf('$');
+        String topLevelClass = nestedClass < 0 ? className : className.substring(0, nestedClass);
+        String relativePath = topLevelClass.replace('.', '/') + ".java";
+        for (String directory: new String[] {relativeRootPath, relativeRootPath + "java/"}) {
+            File sourceFile = new File(directory + relativePath);
+            if (sourceFile.isFile()) {
+                return sourceFile;
             }
         }
+        return null;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
 
+    /**
+     * @return layout references of each activity, in manifest order
+     */
+    public Map<String, List<String>> getActivityLayouts() {
+        return Collections.unmodifiableMap(activityLayoutMap);
+    }
+
+    /**
+     * @return layout references of each fragment created by the activities or by other fragments
+     */
+    public Map<String, List<String>> getFragmentLayouts() {
+        return Collections.unmodifiableMap(fragmentLayoutMap);
+    }
 
+    /**
+     * @return phase timings and counters of the traversal
+     */
+    public AnalysisMetrics getMetrics() {
+        return metrics;
     }
 }
@@ -0,0 +1,84 @@
+package androidgraph;
+
+/**
+ * Open-addressing map from strings to ints, without boxing the values
+ */
+final class StringIntMap {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int missingValue;
+    private String[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * @param _missingValue value returned by get for a key that is not in the map
+     */
+    StringIntMap(int _missingValue) {
+        this.missingValue = _missingValue;
+        this.keys = new String[INITIAL_CAPACITY];
+        this.values = new int[INITIAL_CAPACITY];
+    }
+
+    private static int slot(String key, int mask) {
+        int hash = key.hashCode() * 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    int get(String key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot].equals(key)) {
+                return values[slot];
+            }
+        }
+        return missingValue;
+    }
+
+    void put(String key, int value) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        for (; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot].equals(key)) {
+                values[slot] = value;
+                return;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 4 > keys.length * 3) {
+            resize();
+        }
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldKeys[i], mask);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate heap size of the tables, without the keys
+     */
+    long estimateMemoryBytes() {
+        // Array header and reference sizes of a 64 bit JVM with compressed oops
+        final long arrayHeader = 16;
+        return 2 * arrayHeader + 4L * keys.length + 4L * values.length;
+    }
+}